@@ -0,0 +1,119 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonException;
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
+
+/**
+ * Collection endpoint for trackers using
+ * {@link TrackerConfiguration.Transport#PROXY}. The client-side bootstrap posts
+ * batches of events with <code>navigator.sendBeacon</code>, and this handler
+ * passes each event to the current {@link CollectionUpstream}.
+ * <p>
+ * A batch is a JSON object with the measurement id as <code>tid</code>, the
+ * client id as <code>cid</code> and an <code>events</code> array where each
+ * item has a <code>name</code> and optionally a <code>params</code> object.
+ * <p>
+ * The handler is added to a session when the first tracker using
+ * {@link TrackerConfiguration.Transport#PROXY} is initialized in it, so
+ * applications that do not use the transport do not expose the endpoint.
+ */
+public class CollectionRequestHandler implements RequestHandler {
+    /**
+     * Path of the endpoint, relative to the servlet.
+     */
+    static final String PATH = "ga-tracker/collect";
+
+    /**
+     * Browsers limit beacons to 64 KiB.
+     */
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+
+    private static volatile CollectionUpstream upstream = new MeasurementProtocolUpstream();
+
+    static void setUpstream(CollectionUpstream upstream) {
+        CollectionRequestHandler.upstream = upstream;
+    }
+
+    static CollectionUpstream getUpstream() {
+        return upstream;
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response)
+            throws IOException {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || !pathInfo.equals("/" + PATH)) {
+            return false;
+        }
+        if (!"POST".equals(request.getMethod())) {
+            response.sendError(405, "Method not allowed");
+            return true;
+        }
+
+        byte[] body;
+        try (InputStream in = request.getInputStream()) {
+            body = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (body.length > MAX_BODY_BYTES) {
+            response.sendError(413, "Batch too large");
+            return true;
+        }
+
+        JsonObject batch;
+        try {
+            batch = Json.parse(new String(body, StandardCharsets.UTF_8));
+        } catch (JsonException | ClassCastException e) {
+            response.sendError(400, "Malformed batch");
+            return true;
+        }
+
+        String measurementId = getString(batch, "tid");
+        String clientId = getString(batch, "cid");
+        JsonValue events = batch.get("events");
+        if (measurementId == null || clientId == null || events == null || events.getType() != JsonType.ARRAY) {
+            response.sendError(400, "Malformed batch");
+            return true;
+        }
+
+        forward(measurementId, clientId, (JsonArray) events);
+
+        response.setStatus(204);
+        return true;
+    }
+
+    private static void forward(String measurementId, String clientId, JsonArray events) {
+        CollectionUpstream target = upstream;
+        for (int i = 0; i < events.length(); i++) {
+            JsonValue value = events.get(i);
+            if (value.getType() != JsonType.OBJECT) {
+                continue;
+            }
+            JsonObject event = (JsonObject) value;
+            String eventName = getString(event, "name");
+            if (eventName == null) {
+                continue;
+            }
+            JsonValue params = event.get("params");
+            target.send(measurementId, clientId, eventName,
+                    params != null && params.getType() == JsonType.OBJECT ? (JsonObject) params : Json.createObject());
+        }
+    }
+
+    private static String getString(JsonObject json, String key) {
+        JsonValue value = json.get(key);
+        return value != null && value.getType() == JsonType.STRING ? value.asString() : null;
+    }
+}
@@ -0,0 +1,36 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.Serializable;
+
+import elemental.json.JsonObject;
+
+/**
+ * Receives events that browsers have sent to the collection endpoint of the
+ * application. Used with {@link TrackerConfiguration.Transport#PROXY}. The
+ * default upstream forwards events to Google Analytics using the Measurement
+ * Protocol. Replacing it with a local stand-in makes it possible to test or
+ * load test the application without sending anything to Google.
+ *
+ * @see GoogleAnalyticsTracker#setCollectionUpstream(CollectionUpstream)
+ */
+@FunctionalInterface
+public interface CollectionUpstream extends Serializable {
+    /**
+     * Forwards one event. Called from request handling threads, so
+     * implementations should queue the event rather than send it
+     * synchronously.
+     *
+     * @param measurementId
+     *            the measurement id the event was tracked for, as reported by
+     *            the browser, not <code>null</code>
+     * @param clientId
+     *            the client id of the user, not <code>null</code>
+     * @param eventName
+     *            the event name, not <code>null</code>
+     * @param params
+     *            the event parameters, not <code>null</code>
+     * @return <code>true</code> if the event was accepted,
+     *         <code>false</code> if it was discarded
+     */
+    boolean send(String measurementId, String clientId, String eventName, JsonObject params);
+}
@@ -0,0 +1,128 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches resolved tracker configurations per router layout class and
+ * production mode setting. Entries are held through a {@link ClassValue} so
+ * that the cache never prevents a layout class from being unloaded.
+ */
+final class ConfigurationCache {
+    private static final ClassValue<Slots> CACHE = new ClassValue<Slots>() {
+        @Override
+        protected Slots computeValue(Class<?> type) {
+            return new Slots();
+        }
+    };
+
+    /**
+     * Incremented to invalidate all cached entries at once since a
+     * {@link ClassValue} cannot be enumerated.
+     */
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private static final class Slots {
+        /**
+         * Incremented to invalidate the entries of one layout class. Added to
+         * the global generation, so that the sum changes when either of them
+         * is incremented.
+         */
+        private final AtomicInteger generation = new AtomicInteger();
+
+        private volatile Entry production;
+        private volatile Entry development;
+
+        private int getGeneration() {
+            return ConfigurationCache.generation.get() + generation.get();
+        }
+    }
+
+    private static final class Entry {
+        private final int generation;
+        private final ResolvedConfiguration configuration;
+
+        private Entry(int generation, ResolvedConfiguration configuration) {
+            this.generation = generation;
+            this.configuration = configuration;
+        }
+    }
+
+    private ConfigurationCache() {
+        // Only static helpers
+    }
+
+    /**
+     * Gets the current generation of the entries for a layout class, to be
+     * passed to {@link #put(Class, boolean, int, ResolvedConfiguration)} after
+     * resolving a configuration. It must be read before resolving starts so
+     * that a configuration resolved during a concurrent invalidation is not
+     * cached as valid.
+     *
+     * @param layoutClass
+     *            the router layout class, not <code>null</code>
+     * @return the current generation
+     */
+    static int getGeneration(Class<?> layoutClass) {
+        return CACHE.get(layoutClass).getGeneration();
+    }
+
+    /**
+     * Gets a cached configuration.
+     *
+     * @param layoutClass
+     *            the router layout class, not <code>null</code>
+     * @param productionMode
+     *            the production mode setting
+     * @return the cached configuration, or <code>null</code> if there is no
+     *         valid cached configuration
+     */
+    static ResolvedConfiguration get(Class<?> layoutClass, boolean productionMode) {
+        Slots slots = CACHE.get(layoutClass);
+        Entry entry = productionMode ? slots.production : slots.development;
+        if (entry == null || entry.generation != slots.getGeneration()) {
+            return null;
+        }
+        return entry.configuration;
+    }
+
+    /**
+     * Stores a configuration in the cache.
+     *
+     * @param layoutClass
+     *            the router layout class, not <code>null</code>
+     * @param productionMode
+     *            the production mode setting
+     * @param resolvedGeneration
+     *            the generation from {@link #getGeneration(Class)} when
+     *            resolving the configuration started
+     * @param configuration
+     *            the configuration to cache, not <code>null</code>
+     */
+    static void put(Class<?> layoutClass, boolean productionMode, int resolvedGeneration,
+            ResolvedConfiguration configuration) {
+        Slots slots = CACHE.get(layoutClass);
+        Entry entry = new Entry(resolvedGeneration, configuration);
+        if (productionMode) {
+            slots.production = entry;
+        } else {
+            slots.development = entry;
+        }
+    }
+
+    /**
+     * Invalidates any cached configurations for the given layout class.
+     *
+     * @param layoutClass
+     *            the router layout class, not <code>null</code>
+     */
+    static void invalidate(Class<?> layoutClass) {
+        CACHE.get(layoutClass).generation.incrementAndGet();
+    }
+
+    /**
+     * Invalidates all cached configurations.
+     */
+    static void invalidateAll() {
+        generation.incrementAndGet();
+    }
+}
@@ -0,0 +1,92 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size window of recently tracked event keys for one tracker. Used to
+ * suppress bursts of identical events without keeping an unbounded history.
+ * When the window is full, the oldest entry is overwritten.
+ */
+final class DeduplicationWindow {
+    static final int SIZE = 8;
+
+    private final long[] keys = new long[SIZE];
+    private final long[] times = new long[SIZE];
+    /**
+     * Index of the occurrence in the tracker's pending queue, or -1 if it has
+     * already been sent.
+     */
+    private final int[] pendingIndexes = new int[SIZE];
+
+    private int used;
+    private int next;
+
+    DeduplicationWindow() {
+        Arrays.fill(pendingIndexes, -1);
+    }
+
+    /**
+     * Finds an entry with the given key that was recorded within the given
+     * interval.
+     *
+     * @param key
+     *            the event key
+     * @param now
+     *            the current time in nanoseconds
+     * @param intervalNanos
+     *            the length of the interval in nanoseconds
+     * @return the slot of the matching entry, or -1 if there is no recent
+     *         entry
+     */
+    int find(long key, long now, long intervalNanos) {
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == key && now - times[i] < intervalNanos) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records an occurrence of an event.
+     *
+     * @param slot
+     *            the slot to update, or -1 to use a new slot
+     * @param key
+     *            the event key
+     * @param now
+     *            the current time in nanoseconds
+     * @param pendingIndex
+     *            the index of the occurrence in the pending queue
+     */
+    void record(int slot, long key, long now, int pendingIndex) {
+        if (slot < 0) {
+            slot = next;
+            next = (next + 1) % SIZE;
+            used = Math.max(used, slot + 1);
+        }
+        keys[slot] = key;
+        times[slot] = now;
+        pendingIndexes[slot] = pendingIndex;
+    }
+
+    /**
+     * Gets the pending queue index of the occurrence in the given slot.
+     *
+     * @param slot
+     *            the slot
+     * @return the pending queue index, or -1 if the occurrence is no longer
+     *         pending
+     */
+    int getPendingIndex(int slot) {
+        return pendingIndexes[slot];
+    }
+
+    /**
+     * Marks all recorded occurrences as no longer pending. Must be called
+     * whenever the pending queue is flushed or its indexes change.
+     */
+    void clearPending() {
+        Arrays.fill(pendingIndexes, 0, used, -1);
+    }
+}
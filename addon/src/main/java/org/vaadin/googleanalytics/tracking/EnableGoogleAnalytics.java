@@ -73,6 +73,17 @@ public @interface EnableGoogleAnalytics {
      */
     String pageviewPrefix() default "";
 
+    /**
+     * The fraction of users whose page views and events are sent, between 0
+     * and 1. The decision is made once per session. By default, everything is
+     * sent.
+     *
+     * @see TrackerConfiguration#setSampleRate(double)
+     *
+     * @return the sample rate
+     */
+    double sampleRate() default 1;
+
     /**
      * Client-side log levels that can be configured through
      * {@link EnableGoogleAnalytics#productionLogging()} and
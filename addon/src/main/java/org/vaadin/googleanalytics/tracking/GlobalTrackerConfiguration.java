@@ -0,0 +1,400 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Settings that apply to all trackers in the application and that can be
+ * changed at runtime, e.g. to switch off tracking during an incident or to
+ * reduce the sample rate under load. The settings are held in a single
+ * immutable snapshot that trackers read once per event, so changes take
+ * effect for existing UIs with their next event or flush without visiting
+ * every UI.
+ * <p>
+ * The settings can be changed through the static setters, or loaded from a
+ * properties file that can be watched for changes. The file supports the
+ * following keys:
+ * <ul>
+ * <li><code>enabled</code> <code>true</code> or <code>false</code> to switch
+ * tracking on or off</li>
+ * <li><code>sampleRate</code> a sample rate between 0 and 1 that overrides
+ * the rates of all configurations</li>
+ * <li><code>sampleRate.</code><i>eventName</i> a sample rate for a single
+ * event name</li>
+ * <li><code>trackingId.</code><i>configuredId</i> a tracking id to use instead
+ * of the configured one</li>
+ * </ul>
+ *
+ * @see GoogleAnalyticsTracker#CONFIG_FILE_PROPERTY
+ */
+public final class GlobalTrackerConfiguration {
+    private static final Logger logger = LoggerFactory.getLogger(GlobalTrackerConfiguration.class);
+
+    private static final String ENABLED_KEY = "enabled";
+    private static final String SAMPLE_RATE_KEY = "sampleRate";
+    private static final String TRACKING_ID_PREFIX = "trackingId.";
+
+    /**
+     * Immutable snapshot of the global settings.
+     */
+    static final class Settings {
+        private static final Settings DEFAULT = new Settings(true, Double.NaN, Collections.emptyMap(),
+                Collections.emptyMap());
+
+        private final boolean enabled;
+
+        /**
+         * Sample rate for all events, or NaN if not overridden.
+         */
+        private final double sampleRate;
+        private final Map<String, Double> eventSampleRates;
+        private final Map<String, String> trackingIds;
+
+        private Settings(boolean enabled, double sampleRate, Map<String, Double> eventSampleRates,
+                Map<String, String> trackingIds) {
+            this.enabled = enabled;
+            this.sampleRate = sampleRate;
+            this.eventSampleRates = eventSampleRates;
+            this.trackingIds = trackingIds;
+        }
+
+        boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Checks whether any sample rates are overridden.
+         */
+        boolean isSampling() {
+            return !Double.isNaN(sampleRate) || !eventSampleRates.isEmpty();
+        }
+
+        /**
+         * Gets the sample rate for an event name. A global rate for the event
+         * name takes precedence over a configured rate for the event name,
+         * which takes precedence over the global rate for all events.
+         *
+         * @param eventName
+         *            the event name, not <code>null</code>
+         * @param configured
+         *            the configuration of the tracker, not <code>null</code>
+         * @return the sample rate, between 0 and 1
+         */
+        double getSampleRate(String eventName, ResolvedConfiguration configured) {
+            Double rate = eventSampleRates.get(eventName);
+            if (rate != null) {
+                return rate.doubleValue();
+            }
+            if (Double.isNaN(sampleRate) || configured.hasEventSampleRate(eventName)) {
+                return configured.getSampleRate(eventName);
+            }
+            return sampleRate;
+        }
+
+        String getTrackingId(String configuredId) {
+            return trackingIds.getOrDefault(configuredId, configuredId);
+        }
+    }
+
+    private static volatile Settings settings = Settings.DEFAULT;
+
+    private GlobalTrackerConfiguration() {
+        // Only static helpers
+    }
+
+    /**
+     * Gets the current settings. Trackers read the settings once per event,
+     * so this is a single volatile read.
+     */
+    static Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Switches tracking on or off for all trackers. While tracking is
+     * switched off, new events are discarded and commands that are already
+     * queued are discarded when the tracker flushes. Default parameters and
+     * user properties are sent again once tracking is switched on.
+     *
+     * @param enabled
+     *            <code>true</code> to switch tracking on, <code>false</code>
+     *            to switch it off
+     */
+    public static synchronized void setEnabled(boolean enabled) {
+        Settings current = settings;
+        settings = new Settings(enabled, current.sampleRate, current.eventSampleRates, current.trackingIds);
+    }
+
+    /**
+     * Checks whether tracking is switched on.
+     *
+     * @return <code>true</code> if tracking is switched on, otherwise
+     *         <code>false</code>
+     */
+    public static boolean isEnabled() {
+        return settings.enabled;
+    }
+
+    /**
+     * Sets a sample rate that overrides the configured sample rates of all
+     * trackers, except configured rates for specific event names.
+     *
+     * @see TrackerConfiguration#setSampleRate(double)
+     *
+     * @param sampleRate
+     *            the sample rate between 0 and 1, or <code>null</code> to use
+     *            the configured rates
+     */
+    public static synchronized void setSampleRate(Double sampleRate) {
+        Settings current = settings;
+        settings = new Settings(current.enabled, sampleRate != null ? checkRate(sampleRate.doubleValue()) : Double.NaN,
+                current.eventSampleRates, current.trackingIds);
+    }
+
+    /**
+     * Gets the sample rate that overrides the configured sample rates.
+     *
+     * @return the sample rate, or <code>null</code> if the configured rates
+     *         are used
+     */
+    public static Double getSampleRate() {
+        double sampleRate = settings.sampleRate;
+        return Double.isNaN(sampleRate) ? null : Double.valueOf(sampleRate);
+    }
+
+    /**
+     * Sets a sample rate for events with the given name that overrides all
+     * configured sample rates.
+     *
+     * @param eventName
+     *            the event name, not <code>null</code>
+     * @param sampleRate
+     *            the sample rate between 0 and 1, or <code>null</code> to
+     *            remove the override
+     */
+    public static synchronized void setEventSampleRate(String eventName, Double sampleRate) {
+        Objects.requireNonNull(eventName);
+        Settings current = settings;
+        Map<String, Double> eventSampleRates = new HashMap<>(current.eventSampleRates);
+        if (sampleRate != null) {
+            eventSampleRates.put(eventName, Double.valueOf(checkRate(sampleRate.doubleValue())));
+        } else {
+            eventSampleRates.remove(eventName);
+        }
+        settings = new Settings(current.enabled, current.sampleRate, Collections.unmodifiableMap(eventSampleRates),
+                current.trackingIds);
+    }
+
+    /**
+     * Gets the sample rates that override the configured rates for specific
+     * event names.
+     *
+     * @return an unmodifiable map from event name to sample rate, not
+     *         <code>null</code>
+     */
+    public static Map<String, Double> getEventSampleRates() {
+        return settings.eventSampleRates;
+    }
+
+    /**
+     * Sets a tracking id to use instead of a configured tracking id, e.g. to
+     * send events from a staging deployment to a separate property. Events
+     * sent with the Measurement Protocol, either directly or forwarded from
+     * the collection endpoint, use the replacement from the next event on,
+     * also for trackers that are already initialized. Trackers that send
+     * through gtag use the replacement if they are initialized after this
+     * call, since gtag keeps the id it was configured with in the browser.
+     *
+     * @param configuredId
+     *            the tracking id from the tracker configuration, not
+     *            <code>null</code>
+     * @param trackingId
+     *            the tracking id to use instead, or <code>null</code> to use
+     *            the configured id
+     */
+    public static synchronized void setTrackingId(String configuredId, String trackingId) {
+        Objects.requireNonNull(configuredId);
+        Settings current = settings;
+        Map<String, String> trackingIds = new HashMap<>(current.trackingIds);
+        if (trackingId != null) {
+            trackingIds.put(configuredId, trackingId);
+        } else {
+            trackingIds.remove(configuredId);
+        }
+        settings = new Settings(current.enabled, current.sampleRate, current.eventSampleRates,
+                Collections.unmodifiableMap(trackingIds));
+    }
+
+    /**
+     * Gets the tracking ids that are used instead of configured ids.
+     *
+     * @return an unmodifiable map from configured id to replacement id, not
+     *         <code>null</code>
+     */
+    public static Map<String, String> getTrackingIds() {
+        return settings.trackingIds;
+    }
+
+    /**
+     * Restores the default settings: tracking is switched on and the
+     * configured sample rates and tracking ids are used.
+     */
+    public static synchronized void reset() {
+        settings = Settings.DEFAULT;
+    }
+
+    /**
+     * Replaces all settings with settings read from properties. Settings that
+     * are not included are restored to their defaults.
+     *
+     * @param properties
+     *            the properties to read, not <code>null</code>
+     * @throws IllegalArgumentException
+     *             if a property is unknown or has an invalid value, in which
+     *             case the settings are not changed
+     */
+    public static synchronized void load(Properties properties) {
+        boolean enabled = true;
+        double sampleRate = Double.NaN;
+        Map<String, Double> eventSampleRates = new HashMap<>();
+        Map<String, String> trackingIds = new HashMap<>();
+
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            if (ENABLED_KEY.equals(key)) {
+                enabled = parseBoolean(key, value);
+            } else if (SAMPLE_RATE_KEY.equals(key)) {
+                sampleRate = parseRate(key, value);
+            } else if (key.startsWith(SAMPLE_RATE_KEY + ".")) {
+                eventSampleRates.put(key.substring(SAMPLE_RATE_KEY.length() + 1),
+                        Double.valueOf(parseRate(key, value)));
+            } else if (key.startsWith(TRACKING_ID_PREFIX) && !value.isEmpty()) {
+                trackingIds.put(key.substring(TRACKING_ID_PREFIX.length()), value);
+            } else {
+                throw new IllegalArgumentException("Unknown property " + key);
+            }
+        }
+
+        settings = new Settings(enabled, sampleRate, Collections.unmodifiableMap(eventSampleRates),
+                Collections.unmodifiableMap(trackingIds));
+    }
+
+    /**
+     * Replaces all settings with settings read from a properties file.
+     *
+     * @see #load(Properties)
+     *
+     * @param file
+     *            the properties file to read, not <code>null</code>
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static void load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        load(properties);
+    }
+
+    /**
+     * Loads settings from a properties file and reloads them whenever the
+     * file changes. If a changed file cannot be read or contains invalid
+     * values, a warning is logged and the previous settings are kept. The
+     * file is watched by a daemon thread until the returned handle is closed.
+     *
+     * @param file
+     *            the properties file to watch, not <code>null</code>
+     * @return a handle for stopping the watch, not <code>null</code>
+     * @throws IOException
+     *             if the file cannot be read or watched
+     */
+    public static Closeable watch(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        load(absolute);
+
+        Path directory = absolute.getParent();
+        WatchService watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        Thread thread = new Thread(() -> watchLoop(watchService, absolute), "vaadin-ga-configuration-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return watchService;
+    }
+
+    private static void watchLoop(WatchService watchService, Path file) {
+        Path fileName = file.getFileName();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context());
+                }
+                boolean valid = key.reset();
+                if (changed) {
+                    reload(file);
+                }
+                if (!valid) {
+                    logger.warn("Stopped watching {} since the directory is no longer accessible", file);
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed through the handle
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reload(Path file) {
+        try {
+            load(file);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Keeping the previous global tracker configuration since {} could not be loaded", file, e);
+        }
+    }
+
+    private static boolean parseBoolean(String key, String value) {
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Property " + key + " must be true or false, was " + value);
+    }
+
+    private static double parseRate(String key, String value) {
+        try {
+            return checkRate(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Property " + key + " must be a number, was " + value, e);
+        }
+    }
+
+    private static double checkRate(double rate) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1, was " + rate);
+        }
+        return rate;
+    }
+}
@@ -1,26 +1,61 @@
 package org.vaadin.googleanalytics.tracking;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.LogLevel;
 import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.ResolvedConfiguration.AdditionalProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.DeduplicationMode;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.OverflowPolicy;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.Transport;
+import org.vaadin.googleanalytics.tracking.TrackerMetrics.DropReason;
+import org.vaadin.googleanalytics.tracking.event.Event;
 
 import com.vaadin.flow.component.ComponentUtil;
 import com.vaadin.flow.component.HasElement;
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.function.DeploymentConfiguration;
 import com.vaadin.flow.internal.JsonCodec;
 import com.vaadin.flow.internal.JsonUtils;
+import com.vaadin.flow.router.Location;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.VaadinSession;
 import com.vaadin.flow.shared.ui.LoadMode;
 
+import elemental.json.Json;
+import elemental.json.JsonArray;
 import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
 
 /**
- * Sends commands to Google Analytics in the browser. An instance of the tracker
+ * Sends commands to Google Analytics in the browser, or directly from the server
+ * if configured to use the Measurement Protocol. An instance of the tracker
  * can be retrieved from a given UI instance ({@link #get(UI)}) or for the
  * current UI instance ({@link #getCurrent()}).
  * <p>
@@ -31,216 +66,1722 @@ import elemental.json.JsonObject;
  * on the top-level router layout in the corresponding UI. The layout should be
  * annotated with @{@link EnableGoogleAnalytics} or implement
  * {@link TrackerConfigurator} for the configuration to succeed.
+ * <p>
+ * Commands can be sent from any thread. Commands sent from a thread that does
+ * not hold the session lock are collected in a lock-free queue and handed over
+ * to the UI through {@link UI#access(com.vaadin.flow.server.Command)}. They
+ * are delivered immediately if server push is enabled, and otherwise with the
+ * next response.
  */
 public class GoogleAnalyticsTracker implements Serializable {
+    /**
+     * Deployment configuration property that enables fail-open mode. In
+     * fail-open mode, a tracker that cannot be initialized logs a warning and
+     * discards its queued commands instead of failing the request. The
+     * property can be set as a servlet init parameter or as the system
+     * property <code>vaadin.googleanalytics.failOpen</code>.
+     */
+    public static final String FAIL_OPEN_PROPERTY = "googleanalytics.failOpen";
+
+    /**
+     * Deployment configuration property with the path of a local directory
+     * from which the Google Analytics script is served. When set, trackers
+     * load the script from the application itself instead of Google's servers
+     * unless a script URL has been configured explicitly. The directory
+     * should contain <code>gtag.js</code> or a file named after the tracking
+     * id, e.g. <code>G-XXXX.js</code>, optionally with precompressed
+     * <code>.br</code> and <code>.gz</code> variants.
+     *
+     * @see TrackerConfiguration#setScriptUrl(String)
+     */
+    public static final String SCRIPT_DIRECTORY_PROPERTY = "googleanalytics.scriptDirectory";
+
+    /**
+     * Deployment configuration property that disables tracking for the whole
+     * application, e.g. in staging and test environments. When set to
+     * <code>true</code>, no listeners or request handlers are registered,
+     * {@link #get(UI)} returns a shared tracker that discards all commands and
+     * nothing is loaded or run in the browser. The property can be set as a
+     * servlet init parameter or as the system property
+     * <code>vaadin.googleanalytics.disabled</code>.
+     *
+     * @see TrackerConfiguration#setEnabled(boolean)
+     */
+    public static final String DISABLED_PROPERTY = "googleanalytics.disabled";
+
+    /**
+     * Deployment configuration property with the path of a properties file
+     * that is loaded into {@link GlobalTrackerConfiguration} when the service
+     * starts and reloaded whenever the file changes, e.g. to switch off
+     * tracking without redeploying the application.
+     */
+    public static final String CONFIG_FILE_PROPERTY = "googleanalytics.configFile";
+
+    /**
+     * Static client-side bootstrap that defines <code>gtag</code> and the
+     * <code>window.vaadinGa</code> API used by the scripts below. It is served
+     * from the add-on jar and cached by the browser.
+     */
+    static final String BOOTSTRAP_URL = "context://googleanalytics/vaadin-ga-tracker.js";
+
+    private static final String INIT_JS = "window.vaadinGa.init($0)";
+
+    /**
+     * Client-side script that loads the gtag script when the condition given
+     * as the second parameter is met.
+     */
+    private static final String LOAD_JS = "window.vaadinGa.load($0, $1)";
+
+    /**
+     * Client-side script that makes the bootstrap send events to the
+     * collection endpoint instead of <code>gtag</code>.
+     */
+    private static final String PROXY_JS = "window.vaadinGa.proxy($0, $1, $2)";
+
+    /**
+     * Client-side script that replays a single queued action.
+     */
+    private static final String SEND_ACTION_JS = "window.vaadinGa.command(arguments)";
+
+    /**
+     * Client-side script that replays all queued actions passed as one array
+     * parameter.
+     */
+    private static final String SEND_ACTIONS_JS = "window.vaadinGa.send($0)";
+
+    /**
+     * Session attribute for the client id used with the Measurement Protocol.
+     */
+    private static final String CLIENT_ID_ATTRIBUTE = GoogleAnalyticsTracker.class.getName() + ".clientId";
+
+    /**
+     * Session attribute for the random number that decides whether the
+     * session is sampled in.
+     */
+    private static final String SAMPLE_BUCKET_ATTRIBUTE = GoogleAnalyticsTracker.class.getName() + ".sampleBucket";
+
+    /**
+     * Parameter that holds the location of a page view that was queued before
+     * the configuration was known, together with the page template of the
+     * route for a navigation. Replaced with the normalized
+     * <code>page_location</code> once the configuration is known.
+     */
+    private static final String PENDING_LOCATION = "vaadin_pending_location";
+
+    private static final Logger logger = LoggerFactory.getLogger(GoogleAnalyticsTracker.class);
+
+    /**
+     * Logs the commands discarded by disabled trackers at debug level, so
+     * that tracking can be verified during development without sending
+     * anything.
+     */
+    private static final Logger disabledLogger = LoggerFactory
+            .getLogger(GoogleAnalyticsTracker.class.getName() + ".disabled");
+
+    /**
+     * Tracker shared by all UIs when tracking is disabled.
+     */
+    private static final GoogleAnalyticsTracker DISABLED = new GoogleAnalyticsTracker(null, true);
+
+    private static final LongAdder totalSuppressedEvents = new LongAdder();
+
+    private static volatile TrackerMetrics metrics = TrackerMetrics.NO_OP;
+
     private final UI ui;
 
-    private boolean inited = false;
+    private volatile boolean inited = false;
+
+    /**
+     * Copy of the session's sample bucket, or a negative value if not yet
+     * read.
+     */
+    private double sampleBucket = -1;
+
+    /**
+     * Configuration derived state is not serialized. It is resolved again from
+     * the route layout when needed after deserialization.
+     */
+    private transient volatile ResolvedConfiguration configuration;
+
+    /**
+     * Configuration resolved when the tracker was created, together with the
+     * route layout it was resolved from. Reused by the initialization if the
+     * layout is still active so that a {@link TrackerConfigurator} doesn't run
+     * twice for the same layout.
+     */
+    private transient ResolvedConfiguration createdConfiguration;
+    private transient HasElement createdLayout;
+
+    /**
+     * Tracking id that the browser side was initialized with. Used for
+     * <code>send_to</code> since gtag only knows the id it was configured
+     * with, even if the global replacement of the configured id has changed
+     * since then.
+     */
+    private String browserTrackingId;
+
+    /**
+     * List of actions to send before the next response is created.
+     * Initialization can only happen after routing has completed since the
+     * top-level layout can only be identified at that point. This queue is only
+     * needed for actions that are issues before initialization has happened,
+     * but it is still used in all cases to keep the internal logic simpler.
+     * <p>
+     * Serialized as a single compressed JSON string.
+     */
+    private transient ArrayList<Serializable[]> pendingActions = new ArrayList<>();
+
+    /**
+     * Recently tracked events, created when first needed. Not serialized since
+     * the timestamps are only meaningful within the same JVM.
+     */
+    private transient DeduplicationWindow deduplicationWindow;
+
+    /**
+     * Actions sent from threads that don't hold the session lock. Drained into
+     * {@link #pendingActions} by a task run through {@link UI#access}. Actions
+     * that are still in the inbox when the tracker is serialized are lost.
+     */
+    private transient ConcurrentLinkedQueue<Serializable[]> inbox = new ConcurrentLinkedQueue<>();
+    private transient AtomicInteger inboxSize = new AtomicInteger();
+    private transient AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    /**
+     * Counts and value sums of aggregated events since the last summary,
+     * indexed like {@link ResolvedConfiguration#getAggregatedEvents()}. A sum
+     * is NaN until an event with a value has been counted. Created when first
+     * needed.
+     */
+    private long[] aggregateCounts;
+    private double[] aggregateSums;
+
+    private boolean detachListenerAdded;
+
+    /**
+     * Default event parameters and user properties as last queued for the
+     * browser. New values are only sent if they differ from these. Created
+     * when first needed.
+     */
+    private JsonObject defaultParameters;
+    private JsonObject userProperties;
+
+    /**
+     * Default event parameters applied to the events that have been
+     * dispatched with the Measurement Protocol, which has no equivalent of
+     * the gtag <code>set</code> command.
+     */
+    private JsonObject dispatchedDefaults;
+
+    /**
+     * Whether queued commands were discarded because tracking was switched
+     * off globally. Default parameters and user properties are sent again
+     * when tracking is switched back on since some changes may have been
+     * discarded.
+     */
+    private boolean resendDefaults;
+
+    /**
+     * Whether a task to send summaries is waiting for the aggregation
+     * interval. Not serialized since the task is not carried over.
+     */
+    private transient boolean summariesScheduled;
+
+    private long suppressedEvents;
+
+    private boolean initFailureLogged;
+
+    /**
+     * Whether all commands are discarded, either because this is the shared
+     * disabled tracker or because the resolved configuration is disabled.
+     */
+    private volatile boolean disabled;
+
+    private GoogleAnalyticsTracker(UI ui) {
+        this.ui = ui;
+    }
+
+    private GoogleAnalyticsTracker(UI ui, boolean disabled) {
+        this.ui = ui;
+        this.disabled = disabled;
+    }
+
+    /**
+     * Gets or creates a tracker for the current UI.
+     * 
+     * @see UI#getCurrent()
+     * 
+     * @return the tracker for the current UI, or <code>null</code> if there is
+     *         no current UI
+     */
+    public static GoogleAnalyticsTracker getCurrent() {
+        UI ui = UI.getCurrent();
+        if (ui == null) {
+            return null;
+        }
+        return get(ui);
+    }
+
+    /**
+     * Gets or creates a tracker for the given UI. If tracking is disabled for
+     * the application or for the configuration of the active route, a shared
+     * tracker that discards all commands is returned.
+     * 
+     * @see #DISABLED_PROPERTY
+     * @see TrackerConfiguration#setEnabled(boolean)
+     * 
+     * @param ui
+     *            the UI for which to get at tracker, not <code>null</code>
+     * @return the tracker for the given ui
+     */
+    public static GoogleAnalyticsTracker get(UI ui) {
+        GoogleAnalyticsTracker tracker = ComponentUtil.getData(ui, GoogleAnalyticsTracker.class);
+        if (tracker == null) {
+            tracker = create(ui);
+            ComponentUtil.setData(ui, GoogleAnalyticsTracker.class, tracker);
+        }
+        return tracker;
+    }
+
+    /**
+     * Creates a tracker for a UI, or returns the shared disabled tracker if
+     * tracking is disabled for the application or for the configuration of
+     * the active route.
+     */
+    private static GoogleAnalyticsTracker create(UI ui) {
+        VaadinSession session = ui.getSession();
+        if (session == null) {
+            return new GoogleAnalyticsTracker(ui);
+        }
+        if (session.getConfiguration().getBooleanProperty(DISABLED_PROPERTY, false)) {
+            return DISABLED;
+        }
+        if (!session.hasLock() || ui.getInternals().getActiveRouterTargetsChain().isEmpty()) {
+            // Decided when the tracker is initialized
+            return new GoogleAnalyticsTracker(ui);
+        }
+
+        HasElement routeLayout = findRouteLayout(ui);
+        ResolvedConfiguration config;
+        try {
+            config = resolveConfig(ui, routeLayout);
+        } catch (RuntimeException e) {
+            if (!session.getConfiguration().getBooleanProperty(FAIL_OPEN_PROPERTY, false)) {
+                throw e;
+            }
+            // Resolved again when the tracker is initialized, which discards the queue
+            return new GoogleAnalyticsTracker(ui);
+        }
+        if (config != null && !config.isEnabled()) {
+            return DISABLED;
+        }
+        GoogleAnalyticsTracker tracker = new GoogleAnalyticsTracker(ui);
+        tracker.createdConfiguration = config;
+        tracker.createdLayout = routeLayout;
+        return tracker;
+    }
+
+    /**
+     * Checks whether this tracker discards all commands because tracking is
+     * disabled.
+     *
+     * @see #DISABLED_PROPERTY
+     * @see TrackerConfiguration#setEnabled(boolean)
+     *
+     * @return <code>true</code> if tracking is disabled, otherwise
+     *         <code>false</code>
+     */
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    private static void logDisabled(Object command) {
+        if (disabledLogger.isDebugEnabled()) {
+            disabledLogger.debug("Tracking is disabled, not sending {}",
+                    command instanceof Object[] ? Arrays.deepToString((Object[]) command) : command);
+        }
+    }
+
+    private void init() {
+        HasElement routeLayout = findRouteLayout(ui);
+        ResolvedConfiguration config = routeLayout == createdLayout ? createdConfiguration
+                : resolveConfig(ui, routeLayout);
+        createdConfiguration = null;
+        createdLayout = null;
+
+        if (config == null) {
+            throw new IllegalStateException(
+                    "There are pending actions for a tracker that isn't initialized and cannot be initialized automatically. Ensure there is a @"
+                            + EnableGoogleAnalytics.class.getSimpleName()
+                            + " on the application's main layout or that it implements "
+                            + TrackerConfigurator.class.getSimpleName() + ".");
+        }
+
+        String trackingId = config.getTrackingId();
+        if (trackingId == null || trackingId.isEmpty()) {
+            throw new IllegalStateException("No tracking id has been defined.");
+        }
+
+        configuration = config;
+
+        if (!config.isEnabled()) {
+            // Nothing is loaded or run in the browser
+            disabled = true;
+            inited = true;
+            pendingActions.forEach(GoogleAnalyticsTracker::logDisabled);
+            clearPendingActions();
+            return;
+        }
+        register(config);
+
+        if (config.isSampling() || GlobalTrackerConfiguration.getSettings().isSampling()) {
+            // Actions queued before the configuration was known
+            pendingActions.removeIf(action -> isDiscarded(getEventName(action)));
+        }
+
+        // Identifies the UI in all events without repeating it in each of them
+        if (defaultParameters == null) {
+            defaultParameters = Json.createObject();
+        }
+        defaultParameters.put("vaadin_ui", ui.getUIId());
+        JsonObject initialDefaults = Json.createObject();
+        initialDefaults.put("vaadin_ui", ui.getUIId());
+        pendingActions.add(0, new Serializable[] { "set", initialDefaults });
+
+        if (config.getTransport() == Transport.MEASUREMENT_PROTOCOL) {
+            String apiSecret = config.getMeasurementProtocolApiSecret();
+            if (apiSecret == null || apiSecret.isEmpty()) {
+                throw new IllegalStateException("No Measurement Protocol API secret has been defined.");
+            }
+
+            // Nothing is loaded in the browser
+            inited = true;
+            return;
+        }
+
+        ui.getPage().addJavaScript(BOOTSTRAP_URL, LoadMode.EAGER);
+        // Todo: ga_debug is legacy, not sure if that is needed any more with GA4
+        ui.getPage().executeJs(INIT_JS, config.getGaDebug());
+
+        if (config.getTransport() == Transport.PROXY) {
+            // Events are collected by the bootstrap, gtag is not loaded
+            addCollectionHandler(ui.getSession());
+            // The configured id, which is replaced when the events are forwarded
+            browserTrackingId = trackingId;
+            ui.getPage().executeJs(PROXY_JS, CollectionRequestHandler.PATH, trackingId,
+                    getClientId(ui.getSession()));
+            inited = true;
+            return;
+        }
+
+        browserTrackingId = GlobalTrackerConfiguration.getSettings().getTrackingId(trackingId);
+        // Config must reach gtag before any of the queued actions except defaults
+        pendingActions.add(1, createConfigAction(browserTrackingId, config.getConfigFields()));
+        AdditionalProperty[] additionalProperties = config.getAdditionalProperties();
+        for (int i = 0; i < additionalProperties.length; i++) {
+            AdditionalProperty property = additionalProperties[i];
+            pendingActions.add(i + 2, createConfigAction(property.getMeasurementId(), property.getConfigFields()));
+        }
+
+        switch (config.getScriptLoading()) {
+        case EAGER:
+            ui.getPage().addJavaScript(config.getScriptUrl(), LoadMode.EAGER);
+            break;
+        case LAZY:
+            ui.getPage().addJavaScript(config.getScriptUrl(), LoadMode.LAZY);
+            break;
+        case IDLE:
+            ui.getPage().executeJs(LOAD_JS, config.getScriptUrl(), "idle");
+            break;
+        case INTERACTION:
+            ui.getPage().executeJs(LOAD_JS, config.getScriptUrl(), "interaction");
+            break;
+        }
+
+        inited = true;
+    }
+
+    /**
+     * Registers the configuration with the application-wide listeners that
+     * depend on it. Each registry holds one entry per tracking id or script
+     * host, so registering again is cheap and does not grow them.
+     */
+    private static void register(ResolvedConfiguration config) {
+        if (config.getTransport() == Transport.PROXY) {
+            MeasurementProtocolUpstream.register(config);
+        }
+        if (config.isPreconnect()) {
+            PreconnectListener.addScriptUrl(config.getScriptUrl());
+        }
+    }
+
+    private static void addCollectionHandler(VaadinSession session) {
+        for (RequestHandler handler : session.getRequestHandlers()) {
+            if (handler instanceof CollectionRequestHandler) {
+                return;
+            }
+        }
+        session.addRequestHandler(new CollectionRequestHandler());
+    }
+
+    private static Serializable[] createConfigAction(String measurementId, JsonObject configFields) {
+        return configFields != null ? new Serializable[] { "config", measurementId, configFields }
+                : new Serializable[] { "config", measurementId };
+    }
+
+    private static ResolvedConfiguration resolveConfig(UI ui) {
+        return resolveConfig(ui, findRouteLayout(ui));
+    }
+
+    private static ResolvedConfiguration resolveConfig(UI ui, HasElement routeLayout) {
+        Class<?> layoutClass = routeLayout.getClass();
+        boolean productionMode = ui.getSession().getConfiguration().isProductionMode();
+
+        int generation = ConfigurationCache.getGeneration(layoutClass);
+        ResolvedConfiguration resolved = ConfigurationCache.get(layoutClass, productionMode);
+        if (resolved != null) {
+            return resolved;
+        }
+
+        TrackerConfiguration config = createConfig(routeLayout, productionMode);
+        if (config == null) {
+            return null;
+        }
+        if (!config.hasScriptUrl() && isSelfHosted(ui.getSession().getConfiguration())) {
+            config.setScriptUrl(ScriptRequestHandler.PATH);
+        }
+
+        resolved = ResolvedConfiguration.of(config);
+        if (config.isCacheable()) {
+            ConfigurationCache.put(layoutClass, productionMode, generation, resolved);
+        }
+        return resolved;
+    }
+
+    private static boolean isSelfHosted(DeploymentConfiguration deploymentConfiguration) {
+        String scriptDirectory = deploymentConfiguration.getStringProperty(SCRIPT_DIRECTORY_PROPERTY, null);
+        return scriptDirectory != null && !scriptDirectory.isEmpty();
+    }
+
+    private static TrackerConfiguration createConfig(HasElement routeLayout, boolean productionMode) {
+        TrackerConfiguration config = null;
+
+        EnableGoogleAnalytics annotation = routeLayout.getClass().getAnnotation(EnableGoogleAnalytics.class);
+
+        if (annotation != null) {
+            config = TrackerConfiguration.fromAnnotation(annotation, productionMode);
+        }
+
+        if (routeLayout instanceof TrackerConfigurator) {
+            if (config == null) {
+                // Use same defaults as in the annotation
+                LogLevel logLevel = productionMode ? LogLevel.NONE : LogLevel.DEBUG;
+                boolean sendHits = SendMode.PRODUCTION.shouldSend(productionMode);
+
+                config = TrackerConfiguration.create(logLevel, sendHits);
+            }
+
+            ((TrackerConfigurator) routeLayout).configureTracker(config);
+        }
+
+        return config;
+    }
+
+    /**
+     * Discards the cached configuration for trackers configured from the given
+     * router layout class. The configuration is resolved again the next time a
+     * tracker is initialized for that layout. Already initialized trackers are
+     * not affected.
+     *
+     * @param layoutClass
+     *            the router layout class, not <code>null</code>
+     */
+    public static void clearConfigurationCache(Class<? extends HasElement> layoutClass) {
+        ConfigurationCache.invalidate(Objects.requireNonNull(layoutClass));
+    }
+
+    /**
+     * Discards all cached tracker configurations.
+     *
+     * @see #clearConfigurationCache(Class)
+     */
+    public static void clearConfigurationCache() {
+        ConfigurationCache.invalidateAll();
+    }
+
+    /**
+     * Sets where events received by the collection endpoint are forwarded.
+     * By default, events are forwarded using the Measurement Protocol with the
+     * API secret from the tracker configuration.
+     *
+     * @see TrackerConfiguration.Transport#PROXY
+     *
+     * @param upstream
+     *            the upstream to use, not <code>null</code>
+     */
+    public static void setCollectionUpstream(CollectionUpstream upstream) {
+        CollectionRequestHandler.setUpstream(Objects.requireNonNull(upstream));
+    }
+
+    /**
+     * Gets where events received by the collection endpoint are forwarded.
+     *
+     * @see #setCollectionUpstream(CollectionUpstream)
+     *
+     * @return the upstream, not <code>null</code>
+     */
+    public static CollectionUpstream getCollectionUpstream() {
+        return CollectionRequestHandler.getUpstream();
+    }
+
+    /**
+     * Sets the metrics implementation that receives measurements from all
+     * trackers in this JVM.
+     *
+     * @param metrics
+     *            the metrics implementation, or {@link TrackerMetrics#NO_OP}
+     *            to disable measuring, not <code>null</code>
+     */
+    public static void setMetrics(TrackerMetrics metrics) {
+        GoogleAnalyticsTracker.metrics = Objects.requireNonNull(metrics);
+    }
+
+    /**
+     * Gets the metrics implementation that receives measurements from all
+     * trackers in this JVM.
+     *
+     * @see #setMetrics(TrackerMetrics)
+     *
+     * @return the metrics implementation, not <code>null</code>
+     */
+    public static TrackerMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static HasElement findRouteLayout(UI ui) {
+        List<HasElement> routeChain = ui.getInternals().getActiveRouterTargetsChain();
+        if (routeChain.isEmpty()) {
+            throw new IllegalStateException("Cannot initialize when no router target is active");
+        }
+        return routeChain.get(routeChain.size() - 1);
+    }
+
+    private ResolvedConfiguration getConfiguration() {
+        if (configuration == null && inited) {
+            // Deserialized, client-side state is still in place
+            configuration = resolveConfig(ui);
+            if (configuration != null && !disabled) {
+                register(configuration);
+            }
+        }
+        return configuration;
+    }
+
+    private void flush() {
+        TrackerMetrics metrics = GoogleAnalyticsTracker.metrics;
+        long start = metrics != TrackerMetrics.NO_OP ? System.nanoTime() : 0;
+        int queueDepth = pendingActions.size();
+
+        if (!GlobalTrackerConfiguration.getSettings().isEnabled()) {
+            // Switched off after the actions were queued
+            pendingActions.forEach(GoogleAnalyticsTracker::logDisabled);
+            clearPendingActions();
+            resendDefaults = true;
+            return;
+        }
+        if (resendDefaults) {
+            resendDefaults = false;
+            queueDefaults();
+        }
+
+        if (!inited) {
+            try {
+                init();
+            } catch (RuntimeException e) {
+                configuration = null;
+                metrics.initFailed(e);
+                if (!isFailOpen()) {
+                    throw e;
+                }
+                discardPendingActions(e);
+                return;
+            }
+            if (metrics != TrackerMetrics.NO_OP) {
+                metrics.initCompleted(System.nanoTime() - start);
+            }
+            if (disabled) {
+                return;
+            }
+        }
+        ResolvedConfiguration config = getConfiguration();
+        for (int i = 0; i < pendingActions.size(); i++) {
+            normalizePageView(config, pendingActions.get(i));
+        }
+
+        if (config.getTransport() == Transport.MEASUREMENT_PROTOCOL) {
+            dispatchActions(pendingActions);
+        } else if (config.isBatchActions()) {
+            sendActions(pendingActions);
+        } else {
+            pendingActions.forEach(this::sendAction);
+        }
+
+        if (metrics != TrackerMetrics.NO_OP) {
+            for (int i = 0; i < pendingActions.size(); i++) {
+                String eventName = getEventName(pendingActions.get(i));
+                if (eventName != null) {
+                    metrics.eventFlushed(eventName);
+                }
+            }
+            metrics.flushCompleted(queueDepth, System.nanoTime() - start);
+        }
+
+        clearPendingActions();
+    }
+
+    /**
+     * Empties the pending queue. Queue indexes recorded for pending
+     * duplicates refer to the old queue, so they are reset at the same time.
+     */
+    private void clearPendingActions() {
+        pendingActions.clear();
+        if (deduplicationWindow != null) {
+            deduplicationWindow.clearPending();
+        }
+    }
+
+    private void queueDefaults() {
+        if (userProperties != null && userProperties.keys().length > 0) {
+            pendingActions.add(0, new Serializable[] { "set", "user_properties", copy(userProperties) });
+        }
+        if (defaultParameters != null && defaultParameters.keys().length > 0) {
+            pendingActions.add(0, new Serializable[] { "set", copy(defaultParameters) });
+        }
+    }
+
+    private static JsonObject copy(JsonObject object) {
+        JsonObject copy = Json.createObject();
+        for (String name : object.keys()) {
+            JsonValue value = object.get(name);
+            copy.put(name, value);
+        }
+        return copy;
+    }
+
+    private boolean isFailOpen() {
+        VaadinSession session = ui.getSession();
+        return session != null && session.getConfiguration().getBooleanProperty(FAIL_OPEN_PROPERTY, false);
+    }
+
+    private void discardPendingActions(RuntimeException cause) {
+        if (!initFailureLogged) {
+            initFailureLogged = true;
+            logger.warn("Discarding Google Analytics commands since the tracker for UI {} cannot be initialized",
+                    ui.getUIId(), cause);
+        }
+        for (int i = 0; i < pendingActions.size(); i++) {
+            reportDropped(pendingActions.get(i), DropReason.INIT_FAILED);
+        }
+        clearPendingActions();
+    }
+
+    private static void reportDropped(Serializable[] action, DropReason reason) {
+        String eventName = getEventName(action);
+        if (eventName != null) {
+            metrics.eventDropped(eventName, reason);
+        }
+    }
+
+    private void dispatchActions(List<Serializable[]> actions) {
+        VaadinSession session = ui.getSession();
+        MeasurementProtocolDispatcher dispatcher = getConfiguration()
+                .getMeasurementProtocolDispatcher(session.getService());
+        String clientId = getClientId(session);
+
+        for (Serializable[] action : actions) {
+            // ["set", fieldsObject]
+            if (action.length == 2 && "set".equals(action[0]) && action[1] instanceof JsonObject) {
+                if (dispatchedDefaults == null) {
+                    dispatchedDefaults = Json.createObject();
+                }
+                applyDefaults(dispatchedDefaults, (JsonObject) action[1]);
+                continue;
+            }
+            // ["event", eventName, fields..., fieldsObject]
+            if (action.length < 2 || !"event".equals(action[0]) || !(action[1] instanceof String)) {
+                continue;
+            }
+            Serializable last = action[action.length - 1];
+            JsonObject params = last instanceof JsonObject ? (JsonObject) last : null;
+            dispatcher.send(clientId, (String) action[1], dispatchedDefaults, params);
+        }
+    }
+
+    /**
+     * Updates a snapshot of default values with the values of a
+     * <code>set</code> command. A <code>null</code> value removes the
+     * default.
+     */
+    private static void applyDefaults(JsonObject defaults, JsonObject values) {
+        for (String name : values.keys()) {
+            JsonValue value = values.get(name);
+            if (value.getType() == JsonType.NULL) {
+                defaults.remove(name);
+            } else {
+                defaults.put(name, value);
+            }
+        }
+    }
+
+    private static String getClientId(VaadinSession session) {
+        String clientId = (String) session.getAttribute(CLIENT_ID_ATTRIBUTE);
+        if (clientId == null) {
+            // Same format as the client id generated by gtag
+            clientId = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE) + "."
+                    + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            session.setAttribute(CLIENT_ID_ATTRIBUTE, clientId);
+        }
+        return clientId;
+    }
+
+    /**
+     * Adds a <code>send_to</code> parameter to an event that should not be
+     * sent to all configured properties. Other actions are left as is since
+     * gtag sends events without <code>send_to</code> to all configured
+     * properties.
+     *
+     * @return the action to send, either the given action or a copy with a
+     *         fields object added
+     */
+    private Serializable[] routeAction(Serializable[] action) {
+        ResolvedConfiguration config = getConfiguration();
+        String eventName = getEventName(action);
+        if (!config.isRouting() || eventName == null) {
+            return action;
+        }
+
+        AdditionalProperty[] properties = config.getAdditionalProperties();
+        double bucket = getSampleBucket();
+        JsonArray sendTo = null;
+        for (int i = 0; i < properties.length; i++) {
+            if (!properties[i].accepts(eventName, bucket)) {
+                if (sendTo == null) {
+                    // All properties before this one are included
+                    sendTo = Json.createArray();
+                    sendTo.set(0, browserTrackingId);
+                    for (int j = 0; j < i; j++) {
+                        sendTo.set(sendTo.length(), properties[j].getMeasurementId());
+                    }
+                }
+            } else if (sendTo != null) {
+                sendTo.set(sendTo.length(), properties[i].getMeasurementId());
+            }
+        }
+        if (sendTo == null) {
+            return action;
+        }
+
+        Serializable last = action[action.length - 1];
+        if (action.length > 2 && last instanceof JsonObject) {
+            // Copied since the fields object may be shared with the caller
+            JsonObject fieldsObject = copy((JsonObject) last);
+            fieldsObject.put("send_to", sendTo);
+            Serializable[] routed = action.clone();
+            routed[action.length - 1] = fieldsObject;
+            return routed;
+        }
+        // ["event", eventName] without a fields object
+        JsonObject fieldsObject = Json.createObject();
+        fieldsObject.put("send_to", sendTo);
+        Serializable[] routed = Arrays.copyOf(action, action.length + 1);
+        routed[action.length] = fieldsObject;
+        return routed;
+    }
+
+    private void sendAction(Serializable[] action) {
+        action = routeAction(action);
+
+        ui.getPage().executeJs(SEND_ACTION_JS, action);
+
+        if (metrics != TrackerMetrics.NO_OP) {
+            reportArgumentBytes(JsonWriter.get().value(action).utf8Length());
+        }
+    }
+
+    private void sendActions(List<Serializable[]> actions) {
+        if (actions.isEmpty()) {
+            return;
+        }
+
+        // [[command, fields..., fieldsObject], ...]
+        JsonArray batch = Json.createArray();
+        for (Serializable[] action : actions) {
+            batch.set(batch.length(), encodeAction(routeAction(action)));
+        }
+
+        ui.getPage().executeJs(SEND_ACTIONS_JS, batch);
+
+        if (metrics != TrackerMetrics.NO_OP) {
+            reportArgumentBytes(JsonWriter.utf8Length(batch.toJson()));
+        }
+    }
+
+    private void reportArgumentBytes(long bytes) {
+        List<HasElement> routeChain = ui.getInternals().getActiveRouterTargetsChain();
+        Class<?> routeTarget = routeChain.isEmpty() ? null : routeChain.get(0).getClass();
+        metrics.argumentsSent(routeTarget, bytes);
+    }
+
+    private static JsonArray encodeAction(Serializable[] action) {
+        JsonArray encoded = Json.createArray();
+        for (Serializable value : action) {
+            encoded.set(encoded.length(), JsonCodec.encodeWithoutTypeInfo(value));
+        }
+        return encoded;
+    }
+
+    private static Serializable[] decodeAction(JsonArray encoded) {
+        Serializable[] action = new Serializable[encoded.length()];
+        for (int i = 0; i < action.length; i++) {
+            // Objects are kept as JSON, other values are decoded to Java types
+            action[i] = JsonCodec.decodeWithoutTypeInfo(encoded.get(i));
+        }
+        return action;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        /*
+         * Pending actions are written as one deflated JSON string instead of a
+         * graph of elemental JSON objects to keep the replicated session small.
+         * Queued events typically repeat the same names, which compresses well.
+         */
+        if (pendingActions.isEmpty()) {
+            out.writeInt(0);
+            return;
+        }
+
+        JsonWriter writer = JsonWriter.get().beginArray();
+        for (Serializable[] action : pendingActions) {
+            writer.value(action);
+        }
+        String encoded = writer.endArray().toString();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(bytes)) {
+            deflater.write(encoded.getBytes(StandardCharsets.UTF_8));
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        inbox = new ConcurrentLinkedQueue<>();
+        inboxSize = new AtomicInteger();
+        drainScheduled = new AtomicBoolean();
+        pendingActions = new ArrayList<>();
+        int length = in.readInt();
+        if (length == 0) {
+            return;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        try (InflaterInputStream inflater = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+            JsonArray actions = Json.instance().parse(new String(inflater.readAllBytes(), StandardCharsets.UTF_8));
+            for (int i = 0; i < actions.length(); i++) {
+                pendingActions.add(decodeAction(actions.getArray(i)));
+            }
+        }
+    }
+
+    private Object readResolve() {
+        // Keep a single shared instance
+        return disabled && ui == null ? DISABLED : this;
+    }
+
+    static Serializable[] createAction(String command, Map<String, Serializable> fieldsObject,
+            Serializable... fields) {
+        if (fields == null) {
+            fields = new Serializable[] { null };
+        }
+
+        boolean hasFieldsObject = fieldsObject != null && !fieldsObject.isEmpty();
+
+        // [command, fields..., fieldsObject]
+        Serializable[] action = new Serializable[1 + fields.length + (hasFieldsObject ? 1 : 0)];
+        action[0] = command;
+        System.arraycopy(fields, 0, action, 1, fields.length);
+        if (hasFieldsObject) {
+            action[action.length - 1] = toJsonObject(fieldsObject);
+        }
+
+        return action;
+    }
+
+    static JsonObject toJsonObject(Map<String, ? extends Serializable> map) {
+        if (map == null || map.isEmpty()) {
+            return null;
+        }
+
+        JsonObject json = Json.createObject();
+        for (Map.Entry<String, ? extends Serializable> entry : map.entrySet()) {
+            json.put(entry.getKey(), toJsonValue(entry.getValue()));
+        }
+        return json;
+    }
+
+    /**
+     * Encodes a value of a fields object. The value types used in analytics
+     * payloads are encoded directly, including nested maps and collections
+     * such as item arrays. Other values are encoded with {@link JsonCodec}.
+     */
+    private static JsonValue toJsonValue(Object value) {
+        if (value instanceof String) {
+            return Json.create((String) value);
+        } else if (value instanceof Number) {
+            return Json.create(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return Json.create(((Boolean) value).booleanValue());
+        } else if (value instanceof JsonValue) {
+            return (JsonValue) value;
+        } else if (value instanceof Map) {
+            JsonObject object = Json.createObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                object.put(String.valueOf(entry.getKey()), toJsonValue(entry.getValue()));
+            }
+            return object;
+        } else if (value instanceof Collection) {
+            JsonArray array = Json.createArray();
+            for (Object item : (Collection<?>) value) {
+                array.set(array.length(), toJsonValue(item));
+            }
+            return array;
+        }
+        return JsonCodec.encodeWithoutTypeInfo((Serializable) value);
+    }
+
+    /**
+     * Gets the event name of an <code>event</code> action, or
+     * <code>null</code> if the action is some other command.
+     */
+    private static String getEventName(Serializable[] action) {
+        // ["event", eventName, ...]
+        if (action.length > 1 && "event".equals(action[0]) && action[1] instanceof String) {
+            return (String) action[1];
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether an event should be dropped because tracking is disabled
+     * or switched off or because of sampling. The global settings are read
+     * once per event. Events are never sampled out before the tracker is initialized since the sampling
+     * configuration is not yet known. Any such events are checked again
+     * during initialization. Events sent without holding the session lock are
+     * checked when they are drained from the inbox.
+     */
+    private boolean isDiscarded(String eventName) {
+        if (disabled) {
+            logDisabled(eventName);
+            return true;
+        }
+        GlobalTrackerConfiguration.Settings global = GlobalTrackerConfiguration.getSettings();
+        if (!global.isEnabled()) {
+            logDisabled(eventName);
+            return true;
+        }
+        if (eventName == null || !hasLock()) {
+            return false;
+        }
+        ResolvedConfiguration config = getConfiguration();
+        if (config == null || !(config.isSampling() || global.isSampling())) {
+            return false;
+        }
+
+        double rate = global.getSampleRate(eventName, config);
+        int maxEventsPerSecond = config.getMaxEventsPerSecond();
+        if (maxEventsPerSecond > 0) {
+            rate *= LoadMonitor.recordAndGetScale(maxEventsPerSecond);
+        }
+        if (getSampleBucket() >= rate) {
+            metrics.eventDropped(eventName, DropReason.SAMPLED);
+            return true;
+        }
+        return false;
+    }
+
+    private double getSampleBucket() {
+        if (sampleBucket < 0) {
+            VaadinSession session = ui.getSession();
+            Double bucket = session != null ? (Double) session.getAttribute(SAMPLE_BUCKET_ATTRIBUTE) : null;
+            if (bucket == null) {
+                bucket = Double.valueOf(ThreadLocalRandom.current().nextDouble());
+                if (session != null) {
+                    session.setAttribute(SAMPLE_BUCKET_ATTRIBUTE, bucket);
+                }
+            }
+            sampleBucket = bucket.doubleValue();
+        }
+        return sampleBucket;
+    }
 
-    private String pageViewPrefix = "";
+    private boolean hasLock() {
+        VaadinSession session = ui.getSession();
+        // A UI without a session is not shared between threads
+        return session == null || session.hasLock();
+    }
 
     /**
-     * List of actions to send before the next response is created.
-     * Initialization can only happen after routing has completed since the
-     * top-level layout can only be identified at that point. This queue is only
-     * needed for actions that are issues before initialization has happened,
-     * but it is still used in all cases to keep the internal logic simpler.
+     * Sends a generic command to Google Analytics. This corresponds to a
+     * client-side call to the <code>ga</code> function except that fieldsObject
+     * is not the last parameter because of the way varargs work in Java.
+     * 
+     * @param command
+     *            the name of the command to send, not <code>null</code>
+     * @param fieldsObject
+     *            a map of additional fields, or <code>null</code> to to not
+     *            send any additional fields
+     * @param fields
+     *            a list of field values to send
      */
-    private ArrayList<Serializable[]> pendingActions = new ArrayList<>();
+    public void ga(String command, Map<String,Serializable> fieldsObject, Serializable... fields) {
+        if (disabled) {
+            logDisabled(fields != null && fields.length > 0 ? fields[0] : command);
+            return;
+        }
+        if ("event".equals(command) && fields != null && fields.length > 0 && fields[0] instanceof String
+                && isDiscarded((String) fields[0])) {
+            return;
+        }
 
-    private GoogleAnalyticsTracker(UI ui) {
-        this.ui = ui;
+        enqueue(createAction(command, fieldsObject, fields));
     }
 
     /**
-     * Gets or creates a tracker for the current UI.
-     * 
-     * @see UI#getCurrent()
-     * 
-     * @return the tracker for the current UI, or <code>null</code> if there is
-     *         no current UI
+     * Queues an event command whose fields object has already been built.
+     * Used by the fixed-arity methods to avoid creating an intermediate map.
      */
-    public static GoogleAnalyticsTracker getCurrent() {
-        UI ui = UI.getCurrent();
-        if (ui == null) {
-            return null;
-        }
-        return get(ui);
+    private void sendEvent(String eventName, JsonObject fieldsObject) {
+        enqueue(new Serializable[] { "event", eventName, fieldsObject });
     }
 
     /**
-     * Gets or creates a tracker for the given UI.
-     * 
-     * @param ui
-     *            the UI for which to get at tracker, not <code>null</code>
-     * @return the tracker for the given ui
+     * Sets a parameter that is included in all events sent after this call,
+     * e.g. a user segment or the current tenant. The value is sent once with
+     * a gtag <code>set</code> command and sent again only when it changes,
+     * instead of being repeated in every event. Parameters of individual
+     * events take precedence over defaults.
+     * <p>
+     * The <code>vaadin_ui</code> parameter with the id of the tracker's UI is
+     * always set as a default.
+     *
+     * @param name
+     *            the parameter name, not <code>null</code>
+     * @param value
+     *            the parameter value, or <code>null</code> to remove the
+     *            default
      */
-    public static GoogleAnalyticsTracker get(UI ui) {
-        GoogleAnalyticsTracker tracker = ComponentUtil.getData(ui, GoogleAnalyticsTracker.class);
-        if (tracker == null) {
-            tracker = new GoogleAnalyticsTracker(ui);
-            ComponentUtil.setData(ui, GoogleAnalyticsTracker.class, tracker);
+    public void setDefaultParameter(String name, Serializable value) {
+        Objects.requireNonNull(name);
+        if (disabled) {
+            return;
+        }
+        if (!hasLock()) {
+            accessLater(() -> setDefaultParameter(name, value));
+            return;
+        }
+        if (defaultParameters == null) {
+            defaultParameters = Json.createObject();
+        }
+        JsonValue encoded = toJsonValue(value);
+        if (updateSnapshot(defaultParameters, name, encoded)) {
+            queueSet(new Serializable[] { "set", null }, 1, name, encoded);
         }
-        return tracker;
     }
 
-    private void init() {
-        TrackerConfiguration config = createConfig(ui);
+    /**
+     * Sets a user property, which Google Analytics associates with the user
+     * rather than with individual events. The value is sent with a gtag
+     * <code>set</code> command only when it differs from the value that has
+     * already been sent. User properties are only sent with
+     * {@link Transport#BROWSER}.
+     *
+     * @param name
+     *            the property name, not <code>null</code>
+     * @param value
+     *            the property value, or <code>null</code> to clear the
+     *            property
+     */
+    public void setUserProperty(String name, Serializable value) {
+        Objects.requireNonNull(name);
+        if (disabled) {
+            return;
+        }
+        if (!hasLock()) {
+            accessLater(() -> setUserProperty(name, value));
+            return;
+        }
+        if (userProperties == null) {
+            userProperties = Json.createObject();
+        }
+        JsonValue encoded = toJsonValue(value);
+        if (updateSnapshot(userProperties, name, encoded)) {
+            queueSet(new Serializable[] { "set", "user_properties", null }, 2, name, encoded);
+        }
+    }
 
-        if (config == null) {
-            throw new IllegalStateException(
-                    "There are pending actions for a tracker that isn't initialized and cannot be initialized automatically. Ensure there is a @"
-                            + EnableGoogleAnalytics.class.getSimpleName()
-                            + " on the application's main layout or that it implements "
-                            + TrackerConfigurator.class.getSimpleName() + ".");
+    private void accessLater(Command command) {
+        try {
+            ui.access(command);
+        } catch (UIDetachedException e) {
+            // Nothing more will be sent
         }
+    }
 
-        String trackingId = config.getTrackingId();
-        if (trackingId == null || trackingId.isEmpty()) {
-            throw new IllegalStateException("No tracking id has been defined.");
+    /**
+     * Updates the snapshot of sent values.
+     *
+     * @return <code>true</code> if the value differs from the snapshot
+     */
+    private static boolean updateSnapshot(JsonObject snapshot, String name, JsonValue value) {
+        if (value.getType() == JsonType.NULL) {
+            if (!snapshot.hasKey(name)) {
+                return false;
+            }
+            snapshot.remove(name);
+            return true;
+        }
+        if (snapshot.hasKey(name) && JsonUtils.jsonEquals(snapshot.get(name), value)) {
+            return false;
         }
+        snapshot.put(name, value);
+        return true;
+    }
 
-        pageViewPrefix = config.getPageViewPrefix();
+    /**
+     * Queues a changed value, merging it into the previous action if that is
+     * a <code>set</code> command of the same kind so that consecutive changes
+     * are sent as one command.
+     *
+     * @param template
+     *            the command to queue, with <code>null</code> in place of the
+     *            fields object
+     * @param fieldsIndex
+     *            the index of the fields object in the command
+     */
+    private void queueSet(Serializable[] template, int fieldsIndex, String name, JsonValue value) {
+        if (!pendingActions.isEmpty()) {
+            Serializable[] last = pendingActions.get(pendingActions.size() - 1);
+            if (last.length == template.length && "set".equals(last[0]) && last[fieldsIndex] instanceof JsonObject
+                    && (fieldsIndex == 1 || template[1].equals(last[1]))) {
+                ((JsonObject) last[fieldsIndex]).put(name, value);
+                return;
+            }
+        }
 
-        ui.getPage()
-                .executeJs("window.dataLayer = window.dataLayer || []; window.gtag = function() { window.dataLayer.push(arguments); } ; window.gtag('js', new Date()); console.log('Loaded Vaadin GA'); ");
+        JsonObject fieldsObject = Json.createObject();
+        fieldsObject.put(name, value);
+        template[fieldsIndex] = fieldsObject;
+        addPending(getConfiguration(), template);
+    }
 
+    private void enqueue(Serializable[] action) {
+        if (disabled) {
+            logDisabled(action);
+            return;
+        }
+        if (!hasLock()) {
+            offerToInbox(action);
+            return;
+        }
 
-        Map<String, Serializable> createFields = new HashMap<>(config.getCreateFields());
-        Map<String, Serializable> initialValues = config.getInitialValues();
-        if (!initialValues.isEmpty()) {
-            createFields.putAll(initialValues);
+        ResolvedConfiguration config = getConfiguration();
+        if (config != null) {
+            // Before deduplication, which may compare page locations
+            normalizePageView(config, action);
+        }
+        if (config != null && config.isAggregating() && aggregate(config, getEventName(action), getValue(action))) {
+            return;
+        }
+        if (config != null && config.isDeduplicating() && deduplicate(config, action)) {
+            return;
         }
 
-        Map<String, Serializable> gaDebug = config.getGaDebug();
-        if (!gaDebug.isEmpty()) {
-            createFields.putAll(gaDebug);
-            // Todo: ga_debug is legacy, not sure if that is needed any more with GA4
-            ui.getPage().executeJs("window.ga_debug = $0;", toJsonObject(gaDebug));
+        addPending(config, action);
+    }
+
+    /**
+     * Adds an action to the pending queue, applying the overflow policy if
+     * the queue is full.
+     */
+    private void addPending(ResolvedConfiguration config, Serializable[] action) {
+        int maxPendingActions = config != null ? config.getMaxPendingActions()
+                : TrackerConfiguration.DEFAULT_MAX_PENDING_ACTIONS;
+        if (pendingActions.size() >= maxPendingActions) {
+            OverflowPolicy policy = config != null ? config.getOverflowPolicy() : OverflowPolicy.DROP_OLDEST;
+            boolean add = makeRoom(policy, action);
+            if (deduplicationWindow != null) {
+                // Queue indexes recorded for pending duplicates are no longer valid
+                deduplicationWindow.clearPending();
+            }
+            if (!add) {
+                return;
+            }
         }
 
-        sendAction(createAction("config",createFields , trackingId));
+        scheduleFlush();
 
-        ui.getPage().addJavaScript(config.getScriptUrl(), LoadMode.EAGER);
+        pendingActions.add(action);
 
-        inited = true;
+        String eventName = getEventName(action);
+        if (eventName != null) {
+            metrics.eventQueued(eventName);
+        }
     }
 
-    private static TrackerConfiguration createConfig(UI ui) {
-        TrackerConfiguration config = null;
+    /**
+     * Applies the overflow policy when the queue is full.
+     *
+     * @return <code>true</code> if the action should be added to the queue,
+     *         <code>false</code> if it has been discarded or has replaced a
+     *         queued action
+     */
+    private boolean makeRoom(OverflowPolicy policy, Serializable[] action) {
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+            reportDropped(pendingActions.remove(0), DropReason.OVERFLOW);
+            return true;
+        }
 
-        HasElement routeLayout = findRouteLayout(ui);
-        boolean productionMode = ui.getSession().getConfiguration().isProductionMode();
+        String eventName = getEventName(action);
+        if (policy == OverflowPolicy.COALESCE && eventName != null) {
+            for (int i = pendingActions.size() - 1; i >= 0; i--) {
+                if (eventName.equals(getEventName(pendingActions.get(i)))) {
+                    // The replaced event is the one that is lost
+                    reportDropped(pendingActions.set(i, action), DropReason.OVERFLOW);
+                    return false;
+                }
+            }
+        }
 
-        EnableGoogleAnalytics annotation = routeLayout.getClass().getAnnotation(EnableGoogleAnalytics.class);
+        reportDropped(action, DropReason.OVERFLOW);
+        return false;
+    }
 
-        if (annotation != null) {
-            config = TrackerConfiguration.fromAnnotation(annotation, productionMode);
+    /**
+     * Checks an action against recently tracked events. Events are not
+     * deduplicated before the tracker is initialized since the configuration
+     * is not yet known.
+     *
+     * @return <code>true</code> if the action has been dropped or has replaced
+     *         a pending duplicate, <code>false</code> if it should be queued
+     */
+    private boolean deduplicate(ResolvedConfiguration config, Serializable[] action) {
+        String eventName = getEventName(action);
+        if (eventName == null) {
+            return false;
         }
 
-        if (routeLayout instanceof TrackerConfigurator) {
-            if (config == null) {
-                // Use same defaults as in the annotation
-                LogLevel logLevel = productionMode ? LogLevel.NONE : LogLevel.DEBUG;
-                boolean sendHits = SendMode.PRODUCTION.shouldSend(productionMode);
+        long key = deduplicationKey(eventName, action, config.getDeduplicationParameters());
+        long now = System.nanoTime();
+        if (deduplicationWindow == null) {
+            deduplicationWindow = new DeduplicationWindow();
+        }
 
-                config = TrackerConfiguration.create(logLevel, sendHits);
+        int slot = deduplicationWindow.find(key, now, config.getDeduplicationIntervalNanos());
+        if (slot >= 0) {
+            if (config.getDeduplicationMode() == DeduplicationMode.FIRST) {
+                // Keep the timestamp of the first occurrence
+                countSuppressed(eventName);
+                return true;
             }
 
-            ((TrackerConfigurator) routeLayout).configureTracker(config);
+            int pendingIndex = deduplicationWindow.getPendingIndex(slot);
+            if (pendingIndex >= 0) {
+                pendingActions.set(pendingIndex, action);
+                deduplicationWindow.record(slot, key, now, pendingIndex);
+                countSuppressed(eventName);
+                return true;
+            }
         }
 
-        return config;
+        deduplicationWindow.record(slot, key, now, pendingActions.size());
+        return false;
     }
 
-    private static HasElement findRouteLayout(UI ui) {
-        List<HasElement> routeChain = ui.getInternals().getActiveRouterTargetsChain();
-        if (routeChain.isEmpty()) {
-            throw new IllegalStateException("Cannot initialize when no router target is active");
+    /**
+     * Counts an event before its fields have been encoded, if the event is
+     * aggregated. Used by the fixed-arity methods so that aggregated events
+     * don't allocate anything.
+     *
+     * @return <code>true</code> if the event has been counted,
+     *         <code>false</code> if it should be queued
+     */
+    private boolean aggregate(String eventName, double value) {
+        if (!hasLock()) {
+            return false;
         }
-        return routeChain.get(routeChain.size() - 1);
+        ResolvedConfiguration config = getConfiguration();
+        return config != null && config.isAggregating() && aggregate(config, eventName, value);
     }
 
-    private void sendAction(Serializable[] action) {
-        /*
-         * Append prefix for page views. This is done in the send phase so that
-         * the prefix is considered also if the page view was created before the
-         * prefix was read from the config.
-         */
-        if (!pageViewPrefix.isEmpty()) {
-            // ["set", "page", location]
-            if (action.length == 3 && "set".equals(action[0]) && "page_location".equals(action[1])) {
-                action[2] = pageViewPrefix + action[2];
+    /**
+     * Counts an event if it is aggregated.
+     *
+     * @param value
+     *            the event value, or NaN if the event has no value
+     * @return <code>true</code> if the event has been counted,
+     *         <code>false</code> if it should be queued
+     */
+    private boolean aggregate(ResolvedConfiguration config, String eventName, double value) {
+        int index = eventName != null ? config.getAggregationIndex(eventName) : -1;
+        if (index < 0) {
+            return false;
+        }
+
+        int size = config.getAggregatedEvents().length;
+        if (aggregateCounts == null || aggregateCounts.length != size) {
+            aggregateCounts = new long[size];
+            aggregateSums = new double[size];
+            Arrays.fill(aggregateSums, Double.NaN);
+        }
+        aggregateCounts[index]++;
+        if (!Double.isNaN(value)) {
+            double sum = aggregateSums[index];
+            aggregateSums[index] = Double.isNaN(sum) ? value : sum + value;
+        }
+        metrics.eventAggregated(eventName);
+
+        if (!detachListenerAdded) {
+            detachListenerAdded = true;
+            ui.addDetachListener(event -> sendDetachedSummaries());
+        }
+        long intervalNanos = config.getAggregationIntervalNanos();
+        if (intervalNanos > 0 && !summariesScheduled) {
+            summariesScheduled = true;
+            CompletableFuture.delayedExecutor(intervalNanos, TimeUnit.NANOSECONDS).execute(this::accessSummaries);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the numeric value of an event, or NaN if it has no value.
+     */
+    private static double getValue(Serializable[] action) {
+        Serializable last = action[action.length - 1];
+        if (last instanceof JsonObject) {
+            JsonObject fieldsObject = (JsonObject) last;
+            if (fieldsObject.hasKey("value") && fieldsObject.get("value").getType() == JsonType.NUMBER) {
+                return fieldsObject.getNumber("value");
             }
+            return Double.NaN;
+        }
+        // ["event", category, action, label, value]
+        if (action.length == 5 && last instanceof Number) {
+            return ((Number) last).doubleValue();
         }
+        return Double.NaN;
+    }
 
-        ui.getPage().executeJs("if (Vaadin.developmentMode) console.log(arguments); window.gtag.apply(null, arguments)", action);
+    private void accessSummaries() {
+        try {
+            ui.access(() -> {
+                summariesScheduled = false;
+                sendSummaries();
+            });
+        } catch (UIDetachedException e) {
+            // Sent or discarded by the detach listener
+        }
     }
 
-    private static Serializable[] createAction(String command, Map<String, Serializable> fieldsObject,
-            Serializable... fields) {
-        if (fields == null) {
-            fields = new Serializable[] { null };
+    /**
+     * Queues a summary event for every aggregated event that has been counted
+     * since the previous summary. This is done automatically on navigation,
+     * but can also be done e.g. before the user logs out.
+     *
+     * @see TrackerConfiguration#setAggregatedEvents(String...)
+     */
+    public void sendSummaries() {
+        if (disabled) {
+            return;
+        }
+        ResolvedConfiguration config = getConfiguration();
+        if (aggregateCounts == null || config == null) {
+            return;
+        }
+
+        String[] eventNames = config.getAggregatedEvents();
+        for (int i = 0; i < aggregateCounts.length && i < eventNames.length; i++) {
+            if (aggregateCounts[i] > 0) {
+                JsonObject fieldsObject = takeSummary(i);
+                addPending(config, new Serializable[] { "event", eventNames[i], fieldsObject });
+            }
         }
+    }
 
-        // [command, fields...]
-        Stream<Serializable> argsStream = Stream.concat(Stream.of(command), Stream.of(fields));
-        if (fieldsObject != null && !fieldsObject.isEmpty()) {
-            // [command, fields..., fieldsObject]
-            argsStream = Stream.concat(argsStream, Stream.of(toJsonObject(fieldsObject)));
+    /**
+     * Sends summaries directly from the server when the UI is detached, since
+     * the browser can no longer receive them.
+     */
+    private void sendDetachedSummaries() {
+        ResolvedConfiguration config = getConfiguration();
+        if (aggregateCounts == null || config == null) {
+            return;
         }
 
-        return argsStream.toArray(Serializable[]::new);
+        String[] eventNames = config.getAggregatedEvents();
+        VaadinSession session = ui.getSession();
+        Transport transport = config.getTransport();
+        for (int i = 0; i < aggregateCounts.length && i < eventNames.length; i++) {
+            if (aggregateCounts[i] == 0) {
+                continue;
+            }
+            JsonObject params = takeSummary(i);
+            if (transport == Transport.BROWSER || session == null) {
+                metrics.eventDropped(eventNames[i], DropReason.DETACHED);
+                continue;
+            }
+
+            if (defaultParameters != null) {
+                // Not sent through the browser, so defaults are not applied
+                for (String name : defaultParameters.keys()) {
+                    if (!params.hasKey(name)) {
+                        JsonValue value = defaultParameters.get(name);
+                        params.put(name, value);
+                    }
+                }
+            }
+            String clientId = getClientId(session);
+            boolean sent = transport == Transport.MEASUREMENT_PROTOCOL
+                    ? config.getMeasurementProtocolDispatcher(session.getService()).send(clientId, eventNames[i],
+                            params)
+                    : CollectionRequestHandler.getUpstream().send(config.getTrackingId(), clientId,
+                            eventNames[i], params);
+            if (sent) {
+                metrics.eventFlushed(eventNames[i]);
+            } else {
+                metrics.eventDropped(eventNames[i], DropReason.DETACHED);
+            }
+        }
     }
 
-    private static JsonObject toJsonObject(Map<String, ? extends Serializable> map) {
-        if (map == null || map.isEmpty()) {
-            return null;
+    private JsonObject takeSummary(int index) {
+        JsonObject fieldsObject = Json.createObject();
+        fieldsObject.put("event_count", aggregateCounts[index]);
+        if (!Double.isNaN(aggregateSums[index])) {
+            fieldsObject.put("value", aggregateSums[index]);
+        }
+        aggregateCounts[index] = 0;
+        aggregateSums[index] = Double.NaN;
+        return fieldsObject;
+    }
+
+    /**
+     * Computes a hash of the event name and the selected parameter values from
+     * the fields object of an event action. Hash collisions may cause distinct
+     * events to be treated as duplicates, but with a 64 bit hash over a window
+     * of a few events that is not a practical concern.
+     */
+    private static long deduplicationKey(String eventName, Serializable[] action, String[] parameters) {
+        long key = eventName.hashCode();
+        if (parameters.length == 0) {
+            return key;
+        }
+
+        Serializable last = action[action.length - 1];
+        JsonObject fieldsObject = last instanceof JsonObject ? (JsonObject) last : null;
+        for (String parameter : parameters) {
+            int valueHash = 0;
+            if (fieldsObject != null && fieldsObject.hasKey(parameter)) {
+                JsonValue value = fieldsObject.get(parameter);
+                valueHash = value.getType() == JsonType.STRING ? value.asString().hashCode()
+                        : value.toJson().hashCode();
+            }
+            key = key * 0x9E3779B97F4A7C15L + valueHash;
         }
+        return key;
+    }
 
-        return JsonUtils.createObject(map, JsonCodec::encodeWithoutTypeInfo);
+    private void countSuppressed(String eventName) {
+        suppressedEvents++;
+        totalSuppressedEvents.increment();
+        metrics.eventDropped(eventName, DropReason.DUPLICATE);
     }
 
     /**
-     * Sends a generic command to Google Analytics. This corresponds to a
-     * client-side call to the <code>ga</code> function except that fieldsObject
-     * is not the last parameter because of the way varargs work in Java.
-     * 
-     * @param command
-     *            the name of the command to send, not <code>null</code>
-     * @param fieldsObject
-     *            a map of additional fields, or <code>null</code> to to not
-     *            send any additional fields
-     * @param fields
-     *            a list of field values to send
+     * Gets the number of events that this tracker has dropped as duplicates.
+     *
+     * @see TrackerConfiguration#setDeduplicationInterval(java.time.Duration)
+     *
+     * @return the number of suppressed events
      */
-    public void ga(String command, Map<String,Serializable> fieldsObject, Serializable... fields) {
-        if (fieldsObject != null) {
-            UI ui = UI.getCurrent();
-            fieldsObject.put("vaadin_ui", ui != null? ui.getUIId() : -1);
+    public long getSuppressedEventCount() {
+        return suppressedEvents;
+    }
+
+    /**
+     * Gets the number of events that all trackers in this JVM have dropped as
+     * duplicates.
+     *
+     * @see TrackerConfiguration#setDeduplicationInterval(java.time.Duration)
+     *
+     * @return the total number of suppressed events
+     */
+    public static long getTotalSuppressedEventCount() {
+        return totalSuppressedEvents.sum();
+    }
+
+    /**
+     * Adds an action sent from a thread without the session lock to the inbox
+     * and makes sure a task to drain the inbox has been scheduled. The inbox
+     * is bounded by the same limit as the pending queue.
+     */
+    private void offerToInbox(Serializable[] action) {
+        ResolvedConfiguration config = configuration;
+        int maxPendingActions = config != null ? config.getMaxPendingActions()
+                : TrackerConfiguration.DEFAULT_MAX_PENDING_ACTIONS;
+        if (inboxSize.incrementAndGet() > maxPendingActions) {
+            inboxSize.decrementAndGet();
+            reportDropped(action, DropReason.OVERFLOW);
+            return;
         }
-        if (pendingActions.isEmpty()) {
-            ui.beforeClientResponse(ui, context -> {
-                if (!inited) {
-                    init();
-                }
+        inbox.offer(action);
 
-                pendingActions.forEach(this::sendAction);
-                pendingActions.clear();
-            });
+        if (drainScheduled.compareAndSet(false, true)) {
+            long flushIntervalNanos = config != null ? config.getFlushIntervalNanos() : 0;
+            if (flushIntervalNanos > 0) {
+                // Collect everything sent during the interval into one push
+                CompletableFuture.delayedExecutor(flushIntervalNanos, TimeUnit.NANOSECONDS)
+                        .execute(this::accessDrain);
+            } else {
+                accessDrain();
+            }
+        }
+    }
+
+    private void accessDrain() {
+        try {
+            ui.access(this::drainInbox);
+        } catch (UIDetachedException e) {
+            // Nobody will ever receive the events
+            drainScheduled.set(false);
+            Serializable[] action;
+            while ((action = inbox.poll()) != null) {
+                inboxSize.decrementAndGet();
+                reportDropped(action, DropReason.DETACHED);
+            }
+        }
+    }
+
+    private void drainInbox() {
+        /*
+         * Reset the flag before polling so that an action offered after the
+         * last poll always schedules a new drain.
+         */
+        drainScheduled.set(false);
+        Serializable[] action;
+        while ((action = inbox.poll()) != null) {
+            inboxSize.decrementAndGet();
+            if (!isDiscarded(getEventName(action))) {
+                enqueue(action);
+            }
         }
+    }
 
-        pendingActions.add(createAction(command, fieldsObject, fields));
+    private void scheduleFlush() {
+        if (pendingActions.isEmpty()) {
+            ui.beforeClientResponse(ui, context -> flush());
+        }
     }
 
     /**
-     * Sends a page view command to Google Analytics.
+     * Sends a page view command to Google Analytics. The page view prefix and
+     * the query parameter filters of the configuration are applied to the
+     * location.
+     * 
+     * @see TrackerConfiguration#setPageViewPrefix(String)
+     * @see TrackerConfiguration#setAllowedQueryParameters(String...)
      * 
      * @param location
      *            the location of the viewed page, not <code>null</code>
      */
     public void sendPageView(String location) {
-        sendPageView(location, null);
+        if (isDiscarded("page_view")) {
+            return;
+        }
+        JsonObject fieldsObject = Json.createObject();
+        putPageLocation(fieldsObject, location);
+        sendEvent("page_view", fieldsObject);
+    }
+
+    /**
+     * Sends a page view for a navigation, with the location normalized
+     * according to the configuration.
+     */
+    void sendPageView(Location location, Class<?> routeTarget) {
+        if (isDiscarded("page_view")) {
+            return;
+        }
+        JsonObject fieldsObject = Json.createObject();
+        ResolvedConfiguration config = configuration;
+        if (config != null) {
+            fieldsObject.put("page_location", config.getPagePathNormalizer().normalize(location, routeTarget));
+        } else {
+            // [location, pageTemplate]
+            JsonArray pending = Json.createArray();
+            pending.set(0, location.getPathWithQueryParameters());
+            String pageTemplate = PagePathNormalizer.getPageTemplate(location, routeTarget);
+            pending.set(1, pageTemplate != null ? Json.create(pageTemplate) : Json.createNull());
+            fieldsObject.put(PENDING_LOCATION, pending);
+        }
+        sendEvent("page_view", fieldsObject);
+    }
+
+    /**
+     * Sets the location of a page view sent by the application. The location
+     * is normalized right away if the configuration is known and otherwise
+     * when the page view is flushed, so that page views sent before the
+     * tracker has been initialized don't lose the prefix or the query
+     * parameter filters.
+     */
+    private void putPageLocation(JsonObject fieldsObject, String location) {
+        // Read once since this may run without the session lock
+        ResolvedConfiguration config = configuration;
+        if (config != null) {
+            fieldsObject.put("page_location", config.getPagePathNormalizer().normalize(location));
+        } else {
+            // [location]
+            JsonArray pending = Json.createArray();
+            pending.set(0, location);
+            fieldsObject.put(PENDING_LOCATION, pending);
+        }
+    }
+
+    /**
+     * Replaces the pending location of a page view that was queued before the
+     * configuration was known with the normalized page location. Other
+     * actions are left as is.
+     */
+    private static void normalizePageView(ResolvedConfiguration config, Serializable[] action) {
+        Serializable last = action[action.length - 1];
+        if (!(last instanceof JsonObject) || !((JsonObject) last).hasKey(PENDING_LOCATION)) {
+            return;
+        }
+        JsonObject fieldsObject = (JsonObject) last;
+        JsonArray pending = fieldsObject.getArray(PENDING_LOCATION);
+        fieldsObject.remove(PENDING_LOCATION);
+
+        PagePathNormalizer normalizer = config.getPagePathNormalizer();
+        String location = pending.getString(0);
+        if (pending.length() == 1) {
+            fieldsObject.put("page_location", normalizer.normalize(location));
+        } else {
+            JsonValue pageTemplate = pending.get(1);
+            fieldsObject.put("page_location", normalizer.normalize(new Location(location),
+                    pageTemplate.getType() == JsonType.NULL ? null : pageTemplate.asString()));
+        }
     }
 
     /**
@@ -257,13 +1798,19 @@ public class GoogleAnalyticsTracker implements Serializable {
      *            command
      */
     public void sendPageView(String location, Map<String, Serializable> fieldsObject) {
-        if (fieldsObject == null) {
-            fieldsObject = new HashMap<>();
+        if (fieldsObject == null || fieldsObject.isEmpty()) {
+            sendPageView(location);
+            return;
         }
-        if (!fieldsObject.containsKey("page_location")) {
-            fieldsObject.put("page_location", location);
+        if (isDiscarded("page_view")) {
+            return;
         }
-        ga("event", fieldsObject,"page_view");
+        // Copy so that the caller's map is not modified
+        JsonObject params = toJsonObject(fieldsObject);
+        if (!params.hasKey("page_location")) {
+            putPageLocation(params, location);
+        }
+        sendEvent("page_view", params);
     }
 
     /**
@@ -278,10 +1825,31 @@ public class GoogleAnalyticsTracker implements Serializable {
      *            the action name, not <code>null</code>
      */
     public void sendEvent(String groupId, String eventName) {
-        Map<String, Serializable> fields = new HashMap<>();
-        fields.put("group_id", groupId);
-        fields.put("event_name", eventName);
-        ga("event", fields, eventName);
+        if (isDiscarded(eventName) || aggregate(eventName, Double.NaN)) {
+            return;
+        }
+        JsonObject fieldsObject = Json.createObject();
+        fieldsObject.put("group_id", groupId);
+        fieldsObject.put("event_name", eventName);
+        sendEvent(eventName, fieldsObject);
+    }
+
+    /**
+     * Sends multiple event commands with the same group id. All the events are
+     * delivered to the browser together with any other pending commands in a
+     * single client-side call.
+     *
+     * @see #sendEvent(String, String)
+     *
+     * @param groupId
+     *            the category name, not <code>null</code>
+     * @param eventNames
+     *            the action names, not <code>null</code>
+     */
+    public void sendEvents(String groupId, Collection<String> eventNames) {
+        for (String eventName : eventNames) {
+            sendEvent(groupId, eventName);
+        }
     }
 
     /**
@@ -299,7 +1867,10 @@ public class GoogleAnalyticsTracker implements Serializable {
      *            the event label, not <code>null</code>
      */
     public void sendEvent(String category, String action, String label) {
-        ga("event", null,  category, action, label);
+        if (isDiscarded(category) || aggregate(category, Double.NaN)) {
+            return;
+        }
+        enqueue(new Serializable[] { "event", category, action, label });
     }
 
     /**
@@ -319,7 +1890,10 @@ public class GoogleAnalyticsTracker implements Serializable {
      *            the event value
      */
     public void sendEvent(String category, String action, String label, int value) {
-        ga("event", null, category, action, label, Integer.valueOf(value));
+        if (isDiscarded(category) || aggregate(category, value)) {
+            return;
+        }
+        enqueue(new Serializable[] { "event", category, action, label, Integer.valueOf(value) });
     }
 
     /**
@@ -339,6 +1913,24 @@ public class GoogleAnalyticsTracker implements Serializable {
         ga("event", fieldsObject, category, action);
     }
 
+    /**
+     * Sends a typed event. The event parameters are encoded directly by the
+     * event, which is cheaper than encoding a map of fields and catches
+     * misspelled parameter names at compile time.
+     *
+     * @param event
+     *            the event to send, not <code>null</code>
+     */
+    public void send(Event event) {
+        String eventName = event.eventName();
+        if (isDiscarded(eventName)) {
+            return;
+        }
+        JsonObject fieldsObject = Json.createObject();
+        event.encode(fieldsObject);
+        sendEvent(eventName, fieldsObject);
+    }
+
     /**
      * Checks whether this tracker has been initialized.
      * 
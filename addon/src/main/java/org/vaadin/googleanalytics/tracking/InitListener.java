@@ -1,7 +1,9 @@
 package org.vaadin.googleanalytics.tracking;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.Objects;
 
 import com.vaadin.flow.component.HasElement;
 import com.vaadin.flow.component.UI;
@@ -11,26 +13,73 @@ import com.vaadin.flow.server.VaadinServiceInitListener;
 
 /**
  * Automatically registers a navigation listener that sends page views to Google
- * Analytics.
+ * Analytics. Nothing is registered if tracking is disabled with
+ * {@link GoogleAnalyticsTracker#DISABLED_PROPERTY}.
  */
 public class InitListener implements VaadinServiceInitListener {
     @Override
     public void serviceInit(ServiceInitEvent event) {
+        if (event.getSource().getDeploymentConfiguration()
+                .getBooleanProperty(GoogleAnalyticsTracker.DISABLED_PROPERTY, false)) {
+            // Nothing is tracked, so nothing needs to be registered
+            return;
+        }
+
+        event.getSource().addServiceDestroyListener(
+                destroy -> MeasurementProtocolDispatcher.shutdownOwnedBy(destroy.getSource()));
+        event.addIndexHtmlRequestListener(new PreconnectListener());
+
+        String scriptDirectory = event.getSource().getDeploymentConfiguration()
+                .getStringProperty(GoogleAnalyticsTracker.SCRIPT_DIRECTORY_PROPERTY, null);
+        if (scriptDirectory != null && !scriptDirectory.isEmpty()) {
+            event.addRequestHandler(new ScriptRequestHandler(scriptDirectory));
+        }
+
+        String configFile = event.getSource().getDeploymentConfiguration()
+                .getStringProperty(GoogleAnalyticsTracker.CONFIG_FILE_PROPERTY, null);
+        if (configFile != null && !configFile.isEmpty()) {
+            watchConfigFile(event, configFile);
+        }
+
         event.getSource().addUIInitListener(uiInit -> {
             UI ui = uiInit.getUI();
 
-            ui.addAfterNavigationListener(navigationEvent -> {
-                GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+            ui.addAfterNavigationListener(navigationEvent -> afterNavigation(ui, navigationEvent));
+        });
+    }
 
-                if (shouldTrack(tracker, navigationEvent)) {
-                    tracker.sendPageView(navigationEvent.getLocation().getPathWithQueryParameters());
-                }
-            });
+    private static void watchConfigFile(ServiceInitEvent event, String configFile) {
+        Closeable watch;
+        try {
+            watch = GlobalTrackerConfiguration.watch(Paths.get(configFile));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load the global tracker configuration from " + configFile, e);
+        }
+        event.getSource().addServiceDestroyListener(destroy -> {
+            try {
+                watch.close();
+            } catch (IOException e) {
+                // Nothing more is watched either way
+            }
         });
     }
 
-    private static boolean shouldTrack(GoogleAnalyticsTracker tracker, AfterNavigationEvent navigationEvent) {
-        if (hasIgnore(navigationEvent)) {
+    static void afterNavigation(UI ui, AfterNavigationEvent navigationEvent) {
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+        // Summaries belong to the previous view
+        tracker.sendSummaries();
+
+        if (shouldTrack(tracker, navigationEvent)) {
+            List<HasElement> routerChain = navigationEvent.getActiveChain();
+            Class<?> routeTarget = routerChain.isEmpty() ? null : routerChain.get(0).getClass();
+            tracker.sendPageView(navigationEvent.getLocation(), routeTarget);
+        }
+    }
+
+    static boolean shouldTrack(GoogleAnalyticsTracker tracker, AfterNavigationEvent navigationEvent) {
+        List<HasElement> routerChain = navigationEvent.getActiveChain();
+        if (hasIgnore(routerChain)) {
+            GoogleAnalyticsTracker.getMetrics().eventDropped("page_view", TrackerMetrics.DropReason.IGNORED);
             return false;
         }
 
@@ -38,30 +87,27 @@ public class InitListener implements VaadinServiceInitListener {
          * Track if tracker is already initialized or if it can be initialized
          * based on the current navigation event.
          */
-        return tracker.isInitialized() || canInitialize(navigationEvent);
+        return tracker.isInitialized() || canInitialize(routerChain);
     }
 
-    private static boolean canInitialize(AfterNavigationEvent navigationEvent) {
-        List<HasElement> routerChain = navigationEvent.getActiveChain();
+    private static boolean canInitialize(List<HasElement> routerChain) {
         if (routerChain.isEmpty()) {
             return false;
         }
 
-        Class<? extends HasElement> rootLayoutClass = getRootLayout(routerChain);
-
-        return rootLayoutClass.getAnnotation(EnableGoogleAnalytics.class) != null
-                || TrackerConfigurator.class.isAssignableFrom(rootLayoutClass);
+        return getRootLayoutMetadata(routerChain).isConfigurable();
     }
 
-    private static Class<? extends HasElement> getRootLayout(List<HasElement> routerChain) {
-        return routerChain.get(routerChain.size() - 1).getClass();
+    private static RouteTrackingMetadata getRootLayoutMetadata(List<HasElement> routerChain) {
+        return RouteTrackingMetadata.get(routerChain.get(routerChain.size() - 1).getClass());
     }
 
-    private static boolean hasIgnore(AfterNavigationEvent navigationEvent) {
-        return navigationEvent.getActiveChain().stream().anyMatch(InitListener::hasIgnoreAnnotation);
-    }
-
-    private static boolean hasIgnoreAnnotation(HasElement target) {
-        return target.getClass().getAnnotation(IgnorePageView.class) != null;
+    private static boolean hasIgnore(List<HasElement> routerChain) {
+        for (int i = 0; i < routerChain.size(); i++) {
+            if (RouteTrackingMetadata.get(routerChain.get(i).getClass()).isIgnorePageView()) {
+                return true;
+            }
+        }
+        return false;
     }
 }
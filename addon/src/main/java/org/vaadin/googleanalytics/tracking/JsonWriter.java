@@ -0,0 +1,294 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import com.vaadin.flow.internal.JsonCodec;
+
+import elemental.json.JsonValue;
+
+/**
+ * Writes compact JSON text in a single pass without building an intermediate
+ * tree of JSON values. Strings, numbers, booleans, maps, iterables, arrays and
+ * already encoded {@link JsonValue}s are written directly. Other
+ * {@link Serializable} values are encoded with {@link JsonCodec}, in the same
+ * way as values in a fields object that is sent to the browser.
+ * <p>
+ * Writers are not thread safe. {@link #get()} returns a writer that is reused
+ * by the current thread, so that the buffer does not have to be reallocated
+ * for every payload. The returned writer must not be used after the next call
+ * to {@link #get()} from the same thread.
+ */
+final class JsonWriter {
+    /**
+     * Buffers larger than this are not retained between uses.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final int MAX_DEPTH = 63;
+
+    private static final ThreadLocal<JsonWriter> cached = ThreadLocal.withInitial(JsonWriter::new);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder out = new StringBuilder(256);
+
+    /**
+     * Bit for each open object or array, set when a value has been written at
+     * that depth so that the next value needs a separator.
+     */
+    private long hasValue;
+    private int depth;
+    private boolean afterName;
+
+    /**
+     * Gets an empty writer that is reused by the current thread.
+     *
+     * @return a writer, not <code>null</code>
+     */
+    static JsonWriter get() {
+        JsonWriter writer = cached.get();
+        writer.reset();
+        return writer;
+    }
+
+    /**
+     * Clears the written text.
+     *
+     * @return this writer
+     */
+    JsonWriter reset() {
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            out.setLength(0);
+            out.trimToSize();
+        } else {
+            out.setLength(0);
+        }
+        hasValue = 0;
+        depth = 0;
+        afterName = false;
+        return this;
+    }
+
+    JsonWriter beginObject() {
+        separate();
+        out.append('{');
+        push();
+        return this;
+    }
+
+    JsonWriter endObject() {
+        pop();
+        out.append('}');
+        return this;
+    }
+
+    JsonWriter beginArray() {
+        separate();
+        out.append('[');
+        push();
+        return this;
+    }
+
+    JsonWriter endArray() {
+        pop();
+        out.append(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     */
+    JsonWriter name(String name) {
+        separate();
+        writeString(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Writes JSON text that has already been encoded.
+     */
+    JsonWriter raw(String json) {
+        separate();
+        out.append(json);
+        return this;
+    }
+
+    /**
+     * Writes any supported value.
+     *
+     * @throws IllegalArgumentException
+     *             if the value cannot be encoded
+     */
+    JsonWriter value(Object value) {
+        if (value == null) {
+            separate();
+            out.append("null");
+        } else if (value instanceof String) {
+            separate();
+            writeString((String) value);
+        } else if (value instanceof Number) {
+            separate();
+            writeNumber((Number) value);
+        } else if (value instanceof Boolean) {
+            separate();
+            out.append(((Boolean) value).booleanValue());
+        } else if (value instanceof JsonValue) {
+            separate();
+            out.append(((JsonValue) value).toJson());
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            endObject();
+        } else if (value instanceof Iterable) {
+            beginArray();
+            for (Object item : (Iterable<?>) value) {
+                value(item);
+            }
+            endArray();
+        } else if (value instanceof Object[]) {
+            beginArray();
+            for (Object item : (Object[]) value) {
+                value(item);
+            }
+            endArray();
+        } else if (value instanceof Serializable) {
+            // Same encoding as for values sent to the browser
+            separate();
+            out.append(JsonCodec.encodeWithoutTypeInfo((Serializable) value).toJson());
+        } else {
+            throw new IllegalArgumentException("Cannot encode " + value.getClass().getName() + " as JSON");
+        }
+        return this;
+    }
+
+    /**
+     * Gets the number of characters written.
+     */
+    int length() {
+        return out.length();
+    }
+
+    /**
+     * Gets the number of bytes of the written text when encoded as UTF-8.
+     */
+    long utf8Length() {
+        return utf8Length(out);
+    }
+
+    /**
+     * Gets the number of bytes of the given text when encoded as UTF-8.
+     */
+    static long utf8Length(CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                // Surrogate pair
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+        } else if (depth > 0) {
+            long bit = 1L << depth;
+            if ((hasValue & bit) != 0) {
+                out.append(',');
+            } else {
+                hasValue |= bit;
+            }
+        }
+    }
+
+    private void push() {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalArgumentException("Value is nested too deeply");
+        }
+        depth++;
+        hasValue &= ~(1L << depth);
+    }
+
+    private void pop() {
+        if (depth == 0) {
+            throw new IllegalStateException("No open object or array");
+        }
+        depth--;
+    }
+
+    private void writeNumber(Number number) {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte) {
+            out.append(number.longValue());
+            return;
+        }
+        double value = number.doubleValue();
+        if (!Double.isFinite(value)) {
+            // Not representable in JSON
+            out.append("null");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            // Whole numbers without a fraction, like JSON.stringify
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+    }
+
+    private void writeString(String string) {
+        out.append('"');
+        int length = string.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            out.append(string, start, i);
+            start = i + 1;
+            switch (c) {
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            default:
+                // Other control characters and line separators that are
+                // not valid in JavaScript string literals
+                out.append("\\u").append(HEX[c >> 12 & 0xF]).append(HEX[c >> 8 & 0xF]).append(HEX[c >> 4 & 0xF])
+                        .append(HEX[c & 0xF]);
+            }
+        }
+        out.append(string, start, length);
+        out.append('"');
+    }
+}
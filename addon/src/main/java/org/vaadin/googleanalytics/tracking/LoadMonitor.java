@@ -0,0 +1,63 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the rate of tracked events across all trackers in the JVM. Used for
+ * adaptive sampling, which lowers the sample rate when the server is tracking
+ * more events per second than configured.
+ * <p>
+ * The rate is computed over fixed one second windows. Recording an event is a
+ * single {@link LongAdder} increment except for the one thread per window that
+ * rolls over to the next window.
+ */
+final class LoadMonitor {
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final LongAdder events = new LongAdder();
+    private static final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+    private static volatile double eventsPerSecond;
+
+    private LoadMonitor() {
+        // Only static helpers
+    }
+
+    /**
+     * Records one tracked event and gets the factor by which sample rates
+     * should be scaled to stay within the given limit.
+     *
+     * @param maxEventsPerSecond
+     *            the target maximum number of events per second, must be
+     *            positive
+     * @return a factor between 0 and 1
+     */
+    static double recordAndGetScale(int maxEventsPerSecond) {
+        events.increment();
+
+        long start = windowStart.get();
+        long now = System.nanoTime();
+        if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+            eventsPerSecond = events.sumThenReset() * (double) WINDOW_NANOS / (now - start);
+        }
+
+        double rate = eventsPerSecond;
+        return rate <= maxEventsPerSecond ? 1 : maxEventsPerSecond / rate;
+    }
+
+    /**
+     * Replaces the measured rate with the given estimate and starts a new
+     * window, so that the estimate is used until the window has passed. Only
+     * intended for tests that need a known load.
+     *
+     * @param estimate
+     *            the number of events per second to assume, not negative
+     */
+    static void setEventsPerSecond(double estimate) {
+        events.reset();
+        windowStart.set(System.nanoTime());
+        eventsPerSecond = estimate;
+    }
+}
@@ -0,0 +1,487 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import elemental.json.JsonObject;
+
+/**
+ * Sends events to Google Analytics from the server using the GA4 Measurement
+ * Protocol. Events are put in a bounded queue and posted in the background in
+ * batches of at most {@value #MAX_EVENTS_PER_REQUEST} events, so sending never
+ * blocks the calling thread.
+ * <p>
+ * Every event is assigned an <code>event_id</code> parameter when it is queued.
+ * The same id is used if the request has to be retried so that duplicates can
+ * be identified in exported data.
+ * <p>
+ * Trackers use a dispatcher automatically when configured with
+ * {@link TrackerConfiguration.Transport#MEASUREMENT_PROTOCOL}. Those
+ * dispatchers are owned by the service of the tracker and are stopped when
+ * they are no longer used by any service, i.e. when the service is destroyed
+ * or when a global tracking id replacement sends the events elsewhere. A
+ * dispatcher can also be used directly, e.g. from background jobs that are not
+ * associated with any UI. Dispatchers obtained through
+ * {@link #get(String, String, String)} are only stopped explicitly.
+ */
+public final class MeasurementProtocolDispatcher {
+    /**
+     * The default Measurement Protocol endpoint.
+     */
+    public static final String DEFAULT_ENDPOINT = "https://www.google-analytics.com/mp/collect";
+
+    /**
+     * Maximum number of events that the Measurement Protocol accepts in one
+     * request.
+     */
+    public static final int MAX_EVENTS_PER_REQUEST = 25;
+
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int MAX_CONCURRENT_REQUESTS = 16;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+
+    private static final Logger logger = LoggerFactory.getLogger(MeasurementProtocolDispatcher.class);
+
+    private static final Map<String, MeasurementProtocolDispatcher> dispatchers = new ConcurrentHashMap<>();
+
+    /**
+     * Dispatchers used by each owner, by the key of the settings with the
+     * configured tracking id. The dispatcher for a key changes when the global
+     * replacement of the tracking id changes. Updated while holding the lock
+     * of {@link #dispatchers}.
+     */
+    private static final Map<Object, Map<String, MeasurementProtocolDispatcher>> owned = new ConcurrentHashMap<>();
+
+    private static final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final String key;
+    private final URI uri;
+    private final boolean compress;
+    private final BlockingQueue<PendingEvent> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Semaphore inFlight = new Semaphore(MAX_CONCURRENT_REQUESTS);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+
+    private volatile boolean running = true;
+
+    /**
+     * Number of owner and settings combinations using this dispatcher, and
+     * whether it has been obtained through the public API. Guarded by the lock
+     * of {@link #dispatchers}.
+     */
+    private int holders;
+    private boolean shared;
+
+    private static final class PendingEvent {
+        private final String clientId;
+        /**
+         * The encoded <code>{"name": ..., "params": {...}}</code> object.
+         */
+        private final String event;
+
+        private PendingEvent(String clientId, String event) {
+            this.clientId = clientId;
+            this.event = event;
+        }
+    }
+
+    private MeasurementProtocolDispatcher(String key, String endpoint, String measurementId, String apiSecret,
+            boolean compress) {
+        this.key = key;
+        this.compress = compress;
+        uri = URI.create(endpoint + (endpoint.contains("?") ? "&" : "?") + "measurement_id="
+                + URLEncoder.encode(measurementId, StandardCharsets.UTF_8) + "&api_secret="
+                + URLEncoder.encode(apiSecret, StandardCharsets.UTF_8));
+
+        worker = new Thread(this::run, "ga-measurement-protocol-" + measurementId);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Gets or creates a dispatcher for the given endpoint and credentials. All
+     * callers using the same settings share the same queue.
+     *
+     * @param endpoint
+     *            the Measurement Protocol endpoint URL, not <code>null</code>
+     * @param measurementId
+     *            the GA4 measurement id, not <code>null</code>
+     * @param apiSecret
+     *            the Measurement Protocol API secret, not <code>null</code>
+     * @return a dispatcher, not <code>null</code>
+     */
+    public static MeasurementProtocolDispatcher get(String endpoint, String measurementId, String apiSecret) {
+        return get(endpoint, measurementId, apiSecret, false);
+    }
+
+    /**
+     * Gets or creates a dispatcher for the given endpoint and credentials,
+     * optionally compressing request bodies with gzip. All callers using the
+     * same settings share the same queue.
+     *
+     * @param endpoint
+     *            the Measurement Protocol endpoint URL, not <code>null</code>
+     * @param measurementId
+     *            the GA4 measurement id, not <code>null</code>
+     * @param apiSecret
+     *            the Measurement Protocol API secret, not <code>null</code>
+     * @param compress
+     *            <code>true</code> to compress request bodies, only if the
+     *            endpoint accepts compressed requests
+     * @return a dispatcher, not <code>null</code>
+     */
+    public static MeasurementProtocolDispatcher get(String endpoint, String measurementId, String apiSecret,
+            boolean compress) {
+        Objects.requireNonNull(endpoint);
+        Objects.requireNonNull(measurementId);
+        Objects.requireNonNull(apiSecret);
+
+        String key = createKey(endpoint, measurementId, apiSecret, compress);
+        MeasurementProtocolDispatcher dispatcher = dispatchers.get(key);
+        if (dispatcher != null && dispatcher.shared) {
+            return dispatcher;
+        }
+        synchronized (dispatchers) {
+            dispatcher = dispatchers.computeIfAbsent(key,
+                    ignore -> new MeasurementProtocolDispatcher(key, endpoint, measurementId, apiSecret, compress));
+            dispatcher.shared = true;
+            return dispatcher;
+        }
+    }
+
+    /**
+     * Gets or creates a dispatcher on behalf of an owner, typically the
+     * service of a tracker. The owner keeps one dispatcher for each
+     * configured tracking id. When the measurement id that the configured id
+     * is replaced with changes, the previous dispatcher is released and
+     * stopped if nothing else uses it.
+     *
+     * @param owner
+     *            the owner, or <code>null</code> to get a dispatcher that is
+     *            only stopped explicitly
+     * @param endpoint
+     *            the Measurement Protocol endpoint URL, not <code>null</code>
+     * @param configuredId
+     *            the configured tracking id, not <code>null</code>
+     * @param measurementId
+     *            the measurement id to send to, not <code>null</code>
+     * @param apiSecret
+     *            the Measurement Protocol API secret, not <code>null</code>
+     * @param compress
+     *            <code>true</code> to compress request bodies
+     * @return a dispatcher, not <code>null</code>
+     */
+    static MeasurementProtocolDispatcher get(Object owner, String endpoint, String configuredId,
+            String measurementId, String apiSecret, boolean compress) {
+        if (owner == null) {
+            return get(endpoint, measurementId, apiSecret, compress);
+        }
+        Objects.requireNonNull(endpoint);
+        Objects.requireNonNull(configuredId);
+        Objects.requireNonNull(measurementId);
+        Objects.requireNonNull(apiSecret);
+
+        String key = createKey(endpoint, measurementId, apiSecret, compress);
+        String configuredKey = createKey(endpoint, configuredId, apiSecret, compress);
+        Map<String, MeasurementProtocolDispatcher> ownerDispatchers = owned.get(owner);
+        MeasurementProtocolDispatcher dispatcher = ownerDispatchers != null ? ownerDispatchers.get(configuredKey)
+                : null;
+        if (dispatcher != null && dispatcher.running && dispatcher.key.equals(key)) {
+            return dispatcher;
+        }
+
+        synchronized (dispatchers) {
+            ownerDispatchers = owned.computeIfAbsent(owner, ignore -> new ConcurrentHashMap<>());
+            MeasurementProtocolDispatcher previous = ownerDispatchers.get(configuredKey);
+            if (previous != null && previous.running && previous.key.equals(key)) {
+                return previous;
+            }
+
+            dispatcher = dispatchers.computeIfAbsent(key,
+                    ignore -> new MeasurementProtocolDispatcher(key, endpoint, measurementId, apiSecret, compress));
+            dispatcher.holders++;
+            ownerDispatchers.put(configuredKey, dispatcher);
+            if (previous != null) {
+                previous.release();
+            }
+            return dispatcher;
+        }
+    }
+
+    private static String createKey(String endpoint, String measurementId, String apiSecret, boolean compress) {
+        return endpoint + '\n' + measurementId + '\n' + apiSecret + '\n' + compress;
+    }
+
+    /**
+     * Releases one holder and stops the dispatcher if it has no holders left.
+     * Must be called while holding the lock of {@link #dispatchers}.
+     */
+    private void release() {
+        holders--;
+        if (holders <= 0 && !shared && running) {
+            shutdown();
+        }
+    }
+
+    /**
+     * Releases all dispatchers of an owner, stopping the ones that are no
+     * longer used by any other owner. Events that have not yet been posted by
+     * a stopped dispatcher are discarded.
+     *
+     * @param owner
+     *            the owner, not <code>null</code>
+     */
+    static void shutdownOwnedBy(Object owner) {
+        synchronized (dispatchers) {
+            Map<String, MeasurementProtocolDispatcher> ownerDispatchers = owned.remove(owner);
+            if (ownerDispatchers != null) {
+                ownerDispatchers.values().forEach(MeasurementProtocolDispatcher::release);
+            }
+        }
+    }
+
+    /**
+     * Stops all dispatchers, including the ones owned by other services.
+     * Events that have not yet been posted are discarded.
+     */
+    public static void shutdownAll() {
+        synchronized (dispatchers) {
+            new ArrayList<>(dispatchers.values()).forEach(MeasurementProtocolDispatcher::shutdown);
+            owned.clear();
+        }
+    }
+
+    /**
+     * Checks whether this dispatcher is still accepting events.
+     *
+     * @return <code>true</code> if the dispatcher is running,
+     *         <code>false</code> if it has been stopped
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Queues an event for sending.
+     *
+     * @param clientId
+     *            the client id to report the event for, not <code>null</code>
+     * @param eventName
+     *            the event name, not <code>null</code>
+     * @param params
+     *            the event parameters, or <code>null</code> to send no
+     *            parameters
+     * @return <code>true</code> if the event was queued, <code>false</code> if
+     *         it was dropped because the queue is full or the dispatcher has
+     *         been shut down
+     */
+    public boolean send(String clientId, String eventName, Map<String, ? extends Serializable> params) {
+        JsonWriter writer = beginEvent(clientId, eventName);
+        if (params != null) {
+            for (Map.Entry<String, ? extends Serializable> entry : params.entrySet()) {
+                writer.name(entry.getKey()).value(entry.getValue());
+            }
+        }
+        return enqueue(clientId, writer, params == null || !params.containsKey("event_id"));
+    }
+
+    /**
+     * Queues an event with already encoded parameters. The parameters object
+     * is not modified.
+     */
+    boolean send(String clientId, String eventName, JsonObject params) {
+        return send(clientId, eventName, null, params);
+    }
+
+    /**
+     * Queues an event with already encoded parameters and default parameters
+     * that are included unless the event has a parameter with the same name.
+     * Neither object is modified.
+     */
+    boolean send(String clientId, String eventName, JsonObject defaults, JsonObject params) {
+        JsonWriter writer = beginEvent(clientId, eventName);
+        if (defaults != null) {
+            for (String name : defaults.keys()) {
+                if (params == null || !params.hasKey(name)) {
+                    writer.name(name).raw(defaults.get(name).toJson());
+                }
+            }
+        }
+        if (params != null) {
+            for (String name : params.keys()) {
+                writer.name(name).raw(params.get(name).toJson());
+            }
+        }
+        return enqueue(clientId, writer, params == null || !params.hasKey("event_id"));
+    }
+
+    /**
+     * Starts encoding an event, leaving the parameters object open.
+     */
+    private static JsonWriter beginEvent(String clientId, String eventName) {
+        Objects.requireNonNull(clientId);
+        Objects.requireNonNull(eventName);
+
+        return JsonWriter.get().beginObject().name("name").value(eventName).name("params").beginObject();
+    }
+
+    private boolean enqueue(String clientId, JsonWriter writer, boolean addEventId) {
+        if (addEventId) {
+            writer.name("event_id").value(UUID.randomUUID().toString());
+        }
+        String event = writer.endObject().endObject().toString();
+
+        if (running && queue.offer(new PendingEvent(clientId, event))) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Gets the number of events that have been dropped because the queue was
+     * full, the dispatcher was shut down or all delivery attempts failed.
+     *
+     * @return the number of dropped events
+     */
+    public long getDroppedEventCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops this dispatcher. Events that have not yet been posted are
+     * discarded.
+     */
+    public void shutdown() {
+        running = false;
+        dispatchers.remove(key, this);
+        worker.interrupt();
+    }
+
+    private void run() {
+        List<PendingEvent> batch = new ArrayList<>();
+        while (running) {
+            try {
+                PendingEvent first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, QUEUE_CAPACITY);
+
+                dispatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        dropped.addAndGet(queue.size());
+        queue.clear();
+    }
+
+    private void dispatch(List<PendingEvent> batch) throws InterruptedException {
+        // Each request can only contain events for one client id
+        Map<String, List<String>> eventsByClient = new LinkedHashMap<>();
+        for (PendingEvent pending : batch) {
+            List<String> events = eventsByClient.get(pending.clientId);
+            if (events == null || events.size() == MAX_EVENTS_PER_REQUEST) {
+                if (events != null) {
+                    post(pending.clientId, events);
+                }
+                events = new ArrayList<>();
+                eventsByClient.put(pending.clientId, events);
+            }
+            events.add(pending.event);
+        }
+        for (Map.Entry<String, List<String>> entry : eventsByClient.entrySet()) {
+            post(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void post(String clientId, List<String> events) throws InterruptedException {
+        JsonWriter writer = JsonWriter.get().beginObject().name("client_id").value(clientId).name("events")
+                .beginArray();
+        for (int i = 0; i < events.size(); i++) {
+            writer.raw(events.get(i));
+        }
+        String body = writer.endArray().endObject().toString();
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json");
+        if (compress) {
+            builder.header("Content-Encoding", "gzip").POST(HttpRequest.BodyPublishers.ofByteArray(gzip(body)));
+        } else {
+            builder.POST(HttpRequest.BodyPublishers.ofString(body));
+        }
+        HttpRequest request = builder.build();
+
+        // Limits the number of concurrent requests and slows down draining
+        inFlight.acquire();
+        attempt(request, events.size(), 1);
+    }
+
+    private static byte[] gzip(String json) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Not thrown by an in-memory stream
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void attempt(HttpRequest request, int eventCount, int attempt) {
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            int status = response != null ? response.statusCode() : -1;
+            if (error == null && status / 100 == 2) {
+                inFlight.release();
+                return;
+            }
+
+            boolean retriable = error != null || status == 429 || status >= 500;
+            if (retriable && attempt < MAX_ATTEMPTS && running) {
+                long backoff = INITIAL_BACKOFF_MILLIS << (attempt - 1);
+                long delay = backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                CompletableFuture.runAsync(() -> attempt(request, eventCount, attempt + 1),
+                        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+            } else {
+                inFlight.release();
+                dropped.addAndGet(eventCount);
+                logger.warn("Dropped {} Measurement Protocol events after {} attempts (status {})", eventCount,
+                        attempt, status, error);
+            }
+        });
+    }
+}
@@ -0,0 +1,41 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vaadin.flow.server.VaadinService;
+
+import elemental.json.JsonObject;
+
+/**
+ * Forwards events from the collection endpoint using the Measurement Protocol.
+ * Only events for measurement ids of configurations using
+ * {@link TrackerConfiguration.Transport#PROXY} with an API secret are
+ * forwarded, so that the endpoint cannot be used to send events to arbitrary
+ * properties.
+ */
+final class MeasurementProtocolUpstream implements CollectionUpstream {
+    private static final Map<String, ResolvedConfiguration> configurations = new ConcurrentHashMap<>();
+
+    /**
+     * Allows forwarding events for the measurement id of the given
+     * configuration.
+     */
+    static void register(ResolvedConfiguration configuration) {
+        String apiSecret = configuration.getMeasurementProtocolApiSecret();
+        if (configuration.getTrackingId() != null && apiSecret != null && !apiSecret.isEmpty()) {
+            configurations.put(configuration.getTrackingId(), configuration);
+        }
+    }
+
+    @Override
+    public boolean send(String measurementId, String clientId, String eventName, JsonObject params) {
+        ResolvedConfiguration configuration = configurations.get(measurementId);
+        if (configuration == null) {
+            return false;
+        }
+        // Called from the collection endpoint, so the service is the one of the request
+        return configuration.getMeasurementProtocolDispatcher(VaadinService.getCurrent()).send(clientId, eventName,
+                params);
+    }
+}
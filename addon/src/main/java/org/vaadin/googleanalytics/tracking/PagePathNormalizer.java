@@ -0,0 +1,171 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vaadin.flow.internal.UrlUtil;
+import com.vaadin.flow.router.Location;
+import com.vaadin.flow.router.QueryParameters;
+
+/**
+ * Turns the location of a page view into the path that is reported: the path
+ * of a route with parameters is replaced with the route template, query
+ * parameters are filtered and the page view prefix is added. Immutable and
+ * shared by all trackers with the same configuration.
+ */
+final class PagePathNormalizer implements Serializable {
+    /**
+     * Normalizer that reports all locations as they are.
+     */
+    static final PagePathNormalizer NONE = new PagePathNormalizer("", false, null, Collections.emptySet());
+
+    private final String prefix;
+    private final boolean routeTemplates;
+
+    /**
+     * Names of query parameters to keep, or <code>null</code> to keep all
+     * parameters that are not denied.
+     */
+    private final Set<String> allowedQueryParameters;
+    private final Set<String> deniedQueryParameters;
+
+    /**
+     * Whether locations are reported as they are.
+     */
+    private final boolean passThrough;
+
+    private PagePathNormalizer(String prefix, boolean routeTemplates, Set<String> allowedQueryParameters,
+            Set<String> deniedQueryParameters) {
+        this.prefix = prefix;
+        this.routeTemplates = routeTemplates;
+        this.allowedQueryParameters = allowedQueryParameters;
+        this.deniedQueryParameters = deniedQueryParameters;
+        passThrough = prefix.isEmpty() && !routeTemplates && allowedQueryParameters == null
+                && deniedQueryParameters.isEmpty();
+    }
+
+    static PagePathNormalizer of(TrackerConfiguration config) {
+        Set<String> allowed = config.getAllowedQueryParameters();
+        PagePathNormalizer normalizer = new PagePathNormalizer(config.getPageViewPrefix(),
+                config.isRouteTemplatePageViews(), allowed != null ? new HashSet<>(allowed) : null,
+                new HashSet<>(config.getDeniedQueryParameters()));
+        return normalizer.passThrough ? NONE : normalizer;
+    }
+
+    /**
+     * Normalizes the location of an automatically tracked navigation.
+     *
+     * @param location
+     *            the location navigated to, not <code>null</code>
+     * @param routeTarget
+     *            the class of the navigation target, or <code>null</code> if
+     *            not known
+     * @return the path to report, not <code>null</code>
+     */
+    String normalize(Location location, Class<?> routeTarget) {
+        if (passThrough) {
+            return location.getPathWithQueryParameters();
+        }
+        return normalize(location, routeTemplates ? getPageTemplate(location, routeTarget) : null);
+    }
+
+    /**
+     * Normalizes the location of a navigation for which the page template has
+     * already been looked up.
+     *
+     * @param location
+     *            the location navigated to, not <code>null</code>
+     * @param pageTemplate
+     *            the page template of the route, or <code>null</code> if the
+     *            route has no template
+     * @return the path to report, not <code>null</code>
+     */
+    String normalize(Location location, String pageTemplate) {
+        if (passThrough) {
+            return location.getPathWithQueryParameters();
+        }
+        String path = routeTemplates && pageTemplate != null ? pageTemplate : location.getPath();
+        return prefix + path + filterQuery(location.getQueryParameters());
+    }
+
+    /**
+     * Gets the page template of a location, which does not depend on the
+     * configuration.
+     *
+     * @param location
+     *            the location navigated to, not <code>null</code>
+     * @param routeTarget
+     *            the class of the navigation target, or <code>null</code> if
+     *            not known
+     * @return the location with route parameters replaced by their names, or
+     *         <code>null</code> if the route has no template
+     */
+    static String getPageTemplate(Location location, Class<?> routeTarget) {
+        if (routeTarget == null) {
+            return null;
+        }
+        return RouteTrackingMetadata.get(routeTarget).getPageTemplate(location.getSegments());
+    }
+
+    /**
+     * Normalizes a location given as a string, e.g. for a page view sent by
+     * the application. Route templates are not applied since the route is not
+     * known.
+     *
+     * @param location
+     *            the location, not <code>null</code>
+     * @return the path to report, not <code>null</code>
+     */
+    String normalize(String location) {
+        if (passThrough) {
+            return location;
+        }
+
+        int queryStart = location.indexOf('?');
+        if (queryStart < 0) {
+            return prefix + location;
+        }
+        return prefix + location.substring(0, queryStart)
+                + filterQuery(QueryParameters.fromString(location.substring(queryStart + 1)));
+    }
+
+    private String filterQuery(QueryParameters queryParameters) {
+        Map<String, List<String>> parameters = queryParameters.getParameters();
+        if (parameters.isEmpty()) {
+            return "";
+        }
+        if (allowedQueryParameters == null && deniedQueryParameters.isEmpty()) {
+            return "?" + queryParameters.getQueryString();
+        }
+
+        // Encoded in the same way as QueryParameters.getQueryString, without
+        // creating a filtered copy of the parameters
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+            String name = entry.getKey();
+            if (!isQueryParameterKept(name)) {
+                continue;
+            }
+            String encodedName = UrlUtil.encodeURIComponent(name);
+            List<String> values = entry.getValue();
+            if (values.size() == 1 && values.get(0).isEmpty()) {
+                query.append(query.length() == 0 ? '?' : '&').append(encodedName);
+                continue;
+            }
+            for (String value : values) {
+                query.append(query.length() == 0 ? '?' : '&').append(encodedName).append('=')
+                        .append(UrlUtil.encodeURIComponent(value));
+            }
+        }
+        return query.toString();
+    }
+
+    private boolean isQueryParameterKept(String name) {
+        return (allowedQueryParameters == null || allowedQueryParameters.contains(name))
+                && !deniedQueryParameters.contains(name);
+    }
+}
@@ -0,0 +1,55 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.jsoup.nodes.Element;
+
+import com.vaadin.flow.server.communication.IndexHtmlRequestListener;
+import com.vaadin.flow.server.communication.IndexHtmlResponse;
+
+/**
+ * Adds <code>preconnect</code> and <code>dns-prefetch</code> links for the
+ * hosts of Google Analytics scripts to the application's host page. The hosts
+ * are collected from configurations that have enabled preconnecting, so links
+ * are only added after the first tracker with such a configuration has been
+ * initialized.
+ */
+class PreconnectListener implements IndexHtmlRequestListener {
+    private static final Set<String> origins = new CopyOnWriteArraySet<>();
+
+    /**
+     * Registers the origin of a script URL. Relative URLs and URLs with other
+     * schemes than http and https are ignored.
+     *
+     * @param scriptUrl
+     *            the script URL, not <code>null</code>
+     */
+    static void addScriptUrl(String scriptUrl) {
+        URI uri;
+        try {
+            uri = URI.create(scriptUrl);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+
+        String scheme = uri.getScheme();
+        if (uri.getHost() != null && ("https".equals(scheme) || "http".equals(scheme))) {
+            origins.add(scheme + "://" + uri.getHost() + (uri.getPort() != -1 ? ":" + uri.getPort() : ""));
+        }
+    }
+
+    @Override
+    public void modifyIndexHtmlResponse(IndexHtmlResponse response) {
+        if (origins.isEmpty()) {
+            return;
+        }
+
+        Element head = response.getDocument().head();
+        for (String origin : origins) {
+            head.appendElement("link").attr("rel", "preconnect").attr("href", origin);
+            head.appendElement("link").attr("rel", "dns-prefetch").attr("href", origin);
+        }
+    }
+}
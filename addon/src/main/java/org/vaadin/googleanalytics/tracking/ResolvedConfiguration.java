@@ -0,0 +1,350 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vaadin.flow.internal.JsonCodec;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+/**
+ * Immutable snapshot of a {@link TrackerConfiguration} with all values that are
+ * sent to the browser already encoded. A single snapshot can be shared by all
+ * trackers that are configured from the same router layout class.
+ * <p>
+ * The encoded JSON values must never be modified after the snapshot has been
+ * created.
+ */
+final class ResolvedConfiguration implements Serializable {
+    private final String trackingId;
+    private final boolean enabled;
+    private final PagePathNormalizer pagePathNormalizer;
+    private final String scriptUrl;
+    private final boolean preconnect;
+    private final boolean batchActions;
+    private final TrackerConfiguration.Transport transport;
+    private final String measurementProtocolUrl;
+    private final String measurementProtocolApiSecret;
+    private final boolean measurementProtocolCompression;
+    private final double sampleRate;
+    private final Map<String, Double> eventSampleRates;
+    private final int maxEventsPerSecond;
+    private final long deduplicationIntervalNanos;
+    private final TrackerConfiguration.DeduplicationMode deduplicationMode;
+    private final String[] deduplicationParameters;
+    private final int maxPendingActions;
+    private final TrackerConfiguration.OverflowPolicy overflowPolicy;
+    private final long flushIntervalNanos;
+    private final String[] aggregatedEvents;
+    private final long aggregationIntervalNanos;
+    private final TrackerConfiguration.ScriptLoading scriptLoading;
+
+    /**
+     * Fields for the <code>config</code> command, or <code>null</code> if
+     * there are no fields.
+     */
+    private final JsonObject configFields;
+
+    private final AdditionalProperty[] additionalProperties;
+
+    /**
+     * Whether some events are not sent to all additional properties.
+     */
+    private final boolean routing;
+
+    /**
+     * Value for <code>window.ga_debug</code>, or <code>null</code> if not
+     * used.
+     */
+    private final JsonObject gaDebug;
+
+    private ResolvedConfiguration(TrackerConfiguration config) {
+        trackingId = config.getTrackingId();
+        enabled = config.isEnabled();
+        pagePathNormalizer = PagePathNormalizer.of(config);
+        scriptUrl = config.getScriptUrl();
+        preconnect = config.isPreconnect();
+        batchActions = config.isBatchActions();
+        transport = config.getTransport();
+        measurementProtocolUrl = config.getMeasurementProtocolUrl();
+        measurementProtocolApiSecret = config.getMeasurementProtocolApiSecret();
+        measurementProtocolCompression = config.isMeasurementProtocolCompression();
+        sampleRate = config.getSampleRate();
+        eventSampleRates = config.getEventSampleRates().isEmpty() ? Collections.emptyMap()
+                : new HashMap<>(config.getEventSampleRates());
+        maxEventsPerSecond = config.getMaxEventsPerSecond();
+        deduplicationIntervalNanos = config.getDeduplicationInterval().toNanos();
+        deduplicationMode = config.getDeduplicationMode();
+        List<String> parameters = config.getDeduplicationParameters();
+        deduplicationParameters = parameters.toArray(new String[parameters.size()]);
+        maxPendingActions = config.getMaxPendingActions();
+        overflowPolicy = config.getOverflowPolicy();
+        flushIntervalNanos = config.getFlushInterval().toNanos();
+        List<String> aggregated = config.getAggregatedEvents();
+        aggregatedEvents = aggregated.toArray(new String[aggregated.size()]);
+        aggregationIntervalNanos = config.getAggregationInterval().toNanos();
+        scriptLoading = config.getScriptLoading();
+
+        Map<String, Serializable> fields = new LinkedHashMap<>(config.getCreateFields());
+        fields.putAll(config.getInitialValues());
+        fields.putAll(config.getGaDebug());
+
+        configFields = encode(fields);
+        gaDebug = encode(config.getGaDebug());
+
+        List<String> measurementIds = config.getMeasurementIds();
+        additionalProperties = new AdditionalProperty[measurementIds.size()];
+        boolean anyRouting = false;
+        for (int i = 0; i < additionalProperties.length; i++) {
+            String measurementId = measurementIds.get(i);
+            Map<String, Serializable> propertyFields = new LinkedHashMap<>(fields);
+            propertyFields.putAll(config.getMeasurementIdFields(measurementId));
+            double rate = config.getMeasurementIdSampleRate(measurementId);
+            Set<String> eventNames = config.getMeasurementIdEventNames(measurementId);
+
+            additionalProperties[i] = new AdditionalProperty(measurementId, encode(propertyFields), rate,
+                    eventNames != null ? new HashSet<>(eventNames) : null);
+            anyRouting |= rate < 1 || eventNames != null;
+        }
+        routing = anyRouting;
+    }
+
+    /**
+     * Resolved settings for an additional measurement id.
+     */
+    static final class AdditionalProperty implements Serializable {
+        private final String measurementId;
+        private final JsonObject configFields;
+        private final double sampleRate;
+        private final Set<String> eventNames;
+
+        private AdditionalProperty(String measurementId, JsonObject configFields, double sampleRate,
+                Set<String> eventNames) {
+            this.measurementId = measurementId;
+            this.configFields = configFields;
+            this.sampleRate = sampleRate;
+            this.eventNames = eventNames;
+        }
+
+        String getMeasurementId() {
+            return measurementId;
+        }
+
+        /**
+         * Gets the fields for the <code>config</code> command, or
+         * <code>null</code> if there are no fields.
+         */
+        JsonObject getConfigFields() {
+            return configFields;
+        }
+
+        /**
+         * Checks whether an event is sent to this property for a session with
+         * the given sample bucket.
+         */
+        boolean accepts(String eventName, double sampleBucket) {
+            return sampleBucket < sampleRate && (eventNames == null || eventNames.contains(eventName));
+        }
+    }
+
+    /**
+     * Creates a snapshot of the current state of the given configuration.
+     * Later changes to the configuration are not reflected in the snapshot.
+     *
+     * @param config
+     *            the configuration to take a snapshot of, not
+     *            <code>null</code>
+     * @return a new snapshot, not <code>null</code>
+     */
+    static ResolvedConfiguration of(TrackerConfiguration config) {
+        return new ResolvedConfiguration(config);
+    }
+
+    private static JsonObject encode(Map<String, Serializable> map) {
+        if (map.isEmpty()) {
+            return null;
+        }
+
+        JsonObject json = Json.createObject();
+        map.forEach((name, value) -> json.put(name, JsonCodec.encodeWithoutTypeInfo(value)));
+        return json;
+    }
+
+    String getTrackingId() {
+        return trackingId;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    PagePathNormalizer getPagePathNormalizer() {
+        return pagePathNormalizer;
+    }
+
+    String getScriptUrl() {
+        return scriptUrl;
+    }
+
+    boolean isPreconnect() {
+        return preconnect;
+    }
+
+    boolean isBatchActions() {
+        return batchActions;
+    }
+
+    TrackerConfiguration.Transport getTransport() {
+        return transport;
+    }
+
+    String getMeasurementProtocolUrl() {
+        return measurementProtocolUrl;
+    }
+
+    String getMeasurementProtocolApiSecret() {
+        return measurementProtocolApiSecret;
+    }
+
+    boolean isMeasurementProtocolCompression() {
+        return measurementProtocolCompression;
+    }
+
+    /**
+     * Gets the dispatcher for Measurement Protocol events. The global
+     * replacement of the tracking id is looked up on each call, so that it
+     * applies to trackers that are already initialized.
+     *
+     * @see GlobalTrackerConfiguration#setTrackingId(String, String)
+     *
+     * @param owner
+     *            the service that uses the dispatcher, or <code>null</code> if
+     *            not known
+     */
+    MeasurementProtocolDispatcher getMeasurementProtocolDispatcher(Object owner) {
+        return MeasurementProtocolDispatcher.get(owner, measurementProtocolUrl, trackingId,
+                GlobalTrackerConfiguration.getSettings().getTrackingId(trackingId), measurementProtocolApiSecret,
+                measurementProtocolCompression);
+    }
+
+    /**
+     * Checks whether any kind of sampling is configured.
+     */
+    boolean isSampling() {
+        return sampleRate < 1 || !eventSampleRates.isEmpty() || maxEventsPerSecond > 0;
+    }
+
+    /**
+     * Gets the configured sample rate for an event, not including any adaptive
+     * adjustment.
+     */
+    double getSampleRate(String eventName) {
+        Double rate = eventSampleRates.get(eventName);
+        return rate != null ? rate.doubleValue() : sampleRate;
+    }
+
+    boolean hasEventSampleRate(String eventName) {
+        return eventSampleRates.containsKey(eventName);
+    }
+
+    int getMaxEventsPerSecond() {
+        return maxEventsPerSecond;
+    }
+
+    boolean isDeduplicating() {
+        return deduplicationIntervalNanos > 0;
+    }
+
+    long getDeduplicationIntervalNanos() {
+        return deduplicationIntervalNanos;
+    }
+
+    TrackerConfiguration.DeduplicationMode getDeduplicationMode() {
+        return deduplicationMode;
+    }
+
+    /**
+     * Gets the names of the parameters that are part of the deduplication
+     * key. The returned array must not be modified.
+     */
+    String[] getDeduplicationParameters() {
+        return deduplicationParameters;
+    }
+
+    int getMaxPendingActions() {
+        return maxPendingActions;
+    }
+
+    TrackerConfiguration.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    long getFlushIntervalNanos() {
+        return flushIntervalNanos;
+    }
+
+    boolean isAggregating() {
+        return aggregatedEvents.length > 0;
+    }
+
+    /**
+     * Gets the names of the aggregated events. The returned array must not be
+     * modified.
+     */
+    String[] getAggregatedEvents() {
+        return aggregatedEvents;
+    }
+
+    /**
+     * Gets the index of an event name in the aggregated events, or -1 if the
+     * event is not aggregated. There are typically only a few aggregated
+     * events, so a linear scan is cheaper than a hash lookup.
+     */
+    int getAggregationIndex(String eventName) {
+        for (int i = 0; i < aggregatedEvents.length; i++) {
+            if (aggregatedEvents[i].equals(eventName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    long getAggregationIntervalNanos() {
+        return aggregationIntervalNanos;
+    }
+
+    TrackerConfiguration.ScriptLoading getScriptLoading() {
+        return scriptLoading;
+    }
+
+    /**
+     * Gets the additional properties that events are also sent to. The
+     * returned array must not be modified.
+     */
+    AdditionalProperty[] getAdditionalProperties() {
+        return additionalProperties;
+    }
+
+    /**
+     * Checks whether some events are not sent to all additional properties,
+     * so that each event must be routed with <code>send_to</code>.
+     */
+    boolean isRouting() {
+        return routing;
+    }
+
+    JsonObject getConfigFields() {
+        return configFields;
+    }
+
+    JsonObject getGaDebug() {
+        return gaDebug;
+    }
+}
@@ -0,0 +1,217 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled route template such as <code>orders/:orderId(\d+)/:tab?</code>
+ * that maps the path of a location to the template, so that all locations of
+ * the same route are reported as the same page. Parameter values are replaced
+ * with the parameter name, e.g. <code>orders/123/items</code> becomes
+ * <code>orders/:orderId/:tab</code>. Segments before the part that matches
+ * the template, e.g. from a route prefix, are kept as they are.
+ * <p>
+ * Templates are immutable and shared between threads.
+ */
+final class RouteTemplate {
+    private static final int LITERAL = 0;
+    private static final int REQUIRED = 1;
+    private static final int OPTIONAL = 2;
+    private static final int WILDCARD = 3;
+
+    /**
+     * The literal text or the parameter name of each segment.
+     */
+    private final String[] names;
+    private final int[] kinds;
+
+    /**
+     * Regular expressions that parameter values must match, or
+     * <code>null</code> for segments without a constraint.
+     */
+    private final Pattern[] constraints;
+
+    private RouteTemplate(String[] names, int[] kinds, Pattern[] constraints) {
+        this.names = names;
+        this.kinds = kinds;
+        this.constraints = constraints;
+    }
+
+    /**
+     * Compiles a template in the syntax used by <code>@Route</code>.
+     *
+     * @param template
+     *            the template to compile, not <code>null</code>
+     * @return the compiled template, or <code>null</code> if the template has
+     *         no parameters and thus never needs to be applied
+     */
+    static RouteTemplate compile(String template) {
+        List<String> segments = split(template);
+        int count = segments.size();
+        String[] names = new String[count];
+        int[] kinds = new int[count];
+        Pattern[] constraints = new Pattern[count];
+        boolean parameters = false;
+
+        for (int i = 0; i < count; i++) {
+            String segment = segments.get(i);
+            if (!segment.startsWith(":")) {
+                names[i] = segment;
+                kinds[i] = LITERAL;
+                continue;
+            }
+            parameters = true;
+
+            // :name, :name?, :name* with an optional (regex) at the end
+            String head = segment.substring(1);
+            int regexStart = head.indexOf('(');
+            if (regexStart >= 0 && head.endsWith(")")) {
+                constraints[i] = Pattern.compile(head.substring(regexStart + 1, head.length() - 1));
+                head = head.substring(0, regexStart);
+            }
+            if (head.endsWith("?")) {
+                kinds[i] = OPTIONAL;
+                head = head.substring(0, head.length() - 1);
+            } else if (head.endsWith("*")) {
+                kinds[i] = WILDCARD;
+                head = head.substring(0, head.length() - 1);
+            } else {
+                kinds[i] = REQUIRED;
+            }
+            names[i] = head;
+        }
+
+        return parameters ? new RouteTemplate(names, kinds, constraints) : null;
+    }
+
+    /**
+     * Splits a template into segments, ignoring slashes inside regular
+     * expressions.
+     */
+    private static List<String> split(String template) {
+        List<String> segments = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '/' && depth == 0) {
+                addSegment(segments, template.substring(start, i));
+                start = i + 1;
+            }
+        }
+        addSegment(segments, template.substring(start));
+        return segments;
+    }
+
+    private static void addSegment(List<String> segments, String segment) {
+        if (!segment.isEmpty()) {
+            segments.add(segment);
+        }
+    }
+
+    /**
+     * Maps the segments of a location path to this template.
+     *
+     * @param segments
+     *            the path segments, not <code>null</code>
+     * @return the normalized path, or <code>null</code> if the path doesn't
+     *         match this template
+     */
+    String apply(List<String> segments) {
+        boolean[] present = new boolean[names.length];
+        int start = match(segments, names.length - 1, segments.size(), present);
+        if (start < 0) {
+            return null;
+        }
+
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < start; i++) {
+            appendSegment(path, segments.get(i));
+        }
+        for (int i = 0; i < names.length; i++) {
+            switch (kinds[i]) {
+            case LITERAL:
+                appendSegment(path, names[i]);
+                break;
+            case WILDCARD:
+                if (present[i]) {
+                    appendSegment(path, ":" + names[i] + "*");
+                }
+                break;
+            default:
+                if (present[i]) {
+                    appendSegment(path, ":" + names[i]);
+                }
+            }
+        }
+        return path.toString();
+    }
+
+    private static void appendSegment(StringBuilder path, String segment) {
+        if (path.length() > 0) {
+            path.append('/');
+        }
+        path.append(segment);
+    }
+
+    /**
+     * Matches template segments up to the given index against the path
+     * segments before the given end, starting from the last segment.
+     *
+     * @return the index of the first matched path segment, or -1 if there is
+     *         no match
+     */
+    private int match(List<String> segments, int index, int end, boolean[] present) {
+        if (index < 0) {
+            return end;
+        }
+
+        switch (kinds[index]) {
+        case LITERAL:
+            if (end > 0 && names[index].equals(segments.get(end - 1))) {
+                return match(segments, index - 1, end - 1, present);
+            }
+            return -1;
+        case REQUIRED:
+            if (end > 0 && accepts(index, segments.get(end - 1))) {
+                present[index] = true;
+                return match(segments, index - 1, end - 1, present);
+            }
+            return -1;
+        case OPTIONAL:
+            if (end > 0 && accepts(index, segments.get(end - 1))) {
+                present[index] = true;
+                int start = match(segments, index - 1, end - 1, present);
+                if (start >= 0) {
+                    return start;
+                }
+            }
+            present[index] = false;
+            return match(segments, index - 1, end, present);
+        default:
+            // Wildcard, consume as many segments as possible
+            int accepted = 0;
+            while (accepted < end && accepts(index, segments.get(end - accepted - 1))) {
+                accepted++;
+            }
+            for (int count = accepted; count >= 0; count--) {
+                present[index] = count > 0;
+                int start = match(segments, index - 1, end - count, present);
+                if (start >= 0) {
+                    return start;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private boolean accepts(int index, String value) {
+        Pattern constraint = constraints[index];
+        return constraint == null || constraint.matcher(value).matches();
+    }
+}
@@ -0,0 +1,142 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vaadin.flow.router.HasUrlParameter;
+import com.vaadin.flow.router.OptionalParameter;
+import com.vaadin.flow.router.ParameterDeserializer;
+import com.vaadin.flow.router.Route;
+import com.vaadin.flow.router.RouteAlias;
+import com.vaadin.flow.router.WildcardParameter;
+
+/**
+ * Tracking related metadata for a route target or router layout class. The
+ * metadata is derived from annotations and implemented interfaces that cannot
+ * change at runtime, so it is computed only once for each class.
+ */
+final class RouteTrackingMetadata {
+    private static final ClassValue<RouteTrackingMetadata> CACHE = new ClassValue<RouteTrackingMetadata>() {
+        @Override
+        protected RouteTrackingMetadata computeValue(Class<?> type) {
+            return new RouteTrackingMetadata(type);
+        }
+    };
+
+    /**
+     * Name used in page templates for the parameter of a
+     * {@link HasUrlParameter} route target.
+     */
+    static final String URL_PARAMETER = "parameter";
+
+    private final boolean ignorePageView;
+    private final boolean configurable;
+
+    /**
+     * Compiled templates of the route and its aliases that have parameters,
+     * including the parameter of a {@link HasUrlParameter} route target.
+     */
+    private final RouteTemplate[] templates;
+
+    private RouteTrackingMetadata(Class<?> type) {
+        ignorePageView = type.getAnnotation(IgnorePageView.class) != null;
+        configurable = type.getAnnotation(EnableGoogleAnalytics.class) != null
+                || TrackerConfigurator.class.isAssignableFrom(type);
+
+        List<RouteTemplate> compiled = new ArrayList<>();
+        String urlParameter = getUrlParameterSegment(type);
+        Route route = type.getAnnotation(Route.class);
+        if (route != null) {
+            /*
+             * The path of a route named by convention is not known here, but
+             * segments before the template are kept, so the parameter alone is
+             * enough
+             */
+            addTemplate(compiled,
+                    (Route.NAMING_CONVENTION.equals(route.value()) ? "" : route.value()) + urlParameter);
+        }
+        for (RouteAlias alias : type.getAnnotationsByType(RouteAlias.class)) {
+            addTemplate(compiled, alias.value() + urlParameter);
+        }
+        templates = compiled.toArray(new RouteTemplate[compiled.size()]);
+    }
+
+    /**
+     * Gets the template segment for the parameter that a
+     * {@link HasUrlParameter} route target takes after its route path.
+     *
+     * @return the segment with a leading slash, or an empty string if the
+     *         class has no URL parameter
+     */
+    private static String getUrlParameterSegment(Class<?> type) {
+        if (!HasUrlParameter.class.isAssignableFrom(type)) {
+            return "";
+        }
+        if (ParameterDeserializer.isAnnotatedParameter(type, WildcardParameter.class)) {
+            return "/:" + URL_PARAMETER + "*";
+        }
+        if (ParameterDeserializer.isAnnotatedParameter(type, OptionalParameter.class)) {
+            return "/:" + URL_PARAMETER + "?";
+        }
+        return "/:" + URL_PARAMETER;
+    }
+
+    private static void addTemplate(List<RouteTemplate> templates, String template) {
+        RouteTemplate compiled = RouteTemplate.compile(template);
+        if (compiled != null) {
+            templates.add(compiled);
+        }
+    }
+
+    /**
+     * Gets the metadata for the given class.
+     *
+     * @param type
+     *            the route target or router layout class, not
+     *            <code>null</code>
+     * @return the metadata, not <code>null</code>
+     */
+    static RouteTrackingMetadata get(Class<?> type) {
+        return CACHE.get(type);
+    }
+
+    /**
+     * Checks whether the class is annotated with @{@link IgnorePageView}.
+     *
+     * @return <code>true</code> if automatic page views should be ignored
+     */
+    boolean isIgnorePageView() {
+        return ignorePageView;
+    }
+
+    /**
+     * Checks whether a tracker can be configured based on the class, i.e. it is
+     * annotated with @{@link EnableGoogleAnalytics} or implements
+     * {@link TrackerConfigurator}.
+     *
+     * @return <code>true</code> if a tracker can be configured from the class
+     */
+    boolean isConfigurable() {
+        return configurable;
+    }
+
+    /**
+     * Maps a location path to the template of the route or one of its
+     * aliases.
+     *
+     * @param segments
+     *            the segments of the location path, not <code>null</code>
+     * @return the path with parameter values replaced by parameter names, or
+     *         <code>null</code> if the route has no parameters or no template
+     *         matches the path
+     */
+    String getPageTemplate(List<String> segments) {
+        for (RouteTemplate template : templates) {
+            String path = template.apply(segments);
+            if (path != null) {
+                return path;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,243 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+
+/**
+ * Serves the Google Analytics script from a local directory so that it is
+ * loaded from the application's own origin. The directory is configured with
+ * {@link GoogleAnalyticsTracker#SCRIPT_DIRECTORY_PROPERTY} and is expected to
+ * be kept up to date outside of the application, e.g. by a scheduled job that
+ * downloads the script.
+ * <p>
+ * For a request with the tracking id <code>G-XXXX</code>, the file
+ * <code>G-XXXX.js</code> is served if it exists, and otherwise
+ * <code>gtag.js</code>. Precompressed variants with the additional suffix
+ * <code>.br</code> or <code>.gz</code> are served to browsers that accept
+ * them. Responses have a strong <code>ETag</code> based on the file contents,
+ * a <code>Last-Modified</code> header and a <code>Cache-Control</code> header,
+ * and conditional requests are answered with <code>304 Not Modified</code>.
+ * Files are streamed to the response without reading them into memory.
+ * <p>
+ * The handler is registered automatically by {@link InitListener} when the
+ * property is set, but it can also be registered manually.
+ */
+public class ScriptRequestHandler implements RequestHandler {
+    /**
+     * Path of the script, relative to the servlet.
+     */
+    static final String PATH = "ga-tracker/gtag.js";
+
+    private static final String DEFAULT_FILE = "gtag.js";
+    private static final Pattern TRACKING_ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+    private static final long MAX_AGE_SECONDS = 3600;
+
+    private final String directory;
+
+    /**
+     * ETags of served files by path. Recomputed when the size or modification
+     * time of a file changes.
+     */
+    private final Map<String, FileTag> tags = new ConcurrentHashMap<>();
+
+    private static final class FileTag implements Serializable {
+        private final long size;
+        private final long lastModified;
+        private final String etag;
+
+        private FileTag(long size, long lastModified, String etag) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+    }
+
+    private enum Encoding {
+        BROTLI("br", ".br"), GZIP("gzip", ".gz"), IDENTITY(null, "");
+
+        private final String contentEncoding;
+        private final String suffix;
+
+        Encoding(String contentEncoding, String suffix) {
+            this.contentEncoding = contentEncoding;
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * Creates a handler serving files from the given directory. Trackers only
+     * load the script from the handler by default when
+     * {@link GoogleAnalyticsTracker#SCRIPT_DIRECTORY_PROPERTY} is set, so a
+     * handler that is registered manually should be combined with
+     * {@link TrackerConfiguration#setScriptUrl(String)}.
+     *
+     * @param directory
+     *            the directory path, not <code>null</code>
+     */
+    public ScriptRequestHandler(String directory) {
+        this.directory = Objects.requireNonNull(directory);
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response)
+            throws IOException {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || !pathInfo.equals("/" + PATH)) {
+            return false;
+        }
+
+        String method = request.getMethod();
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            response.sendError(405, "Method not allowed");
+            return true;
+        }
+
+        Path file = resolveFile(request.getParameter("id"));
+        if (file == null) {
+            response.sendError(404, "Script not found");
+            return true;
+        }
+
+        Encoding encoding = selectEncoding(file, request.getHeader("Accept-Encoding"));
+        Path variant = file.resolveSibling(file.getFileName() + encoding.suffix);
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(variant, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Removed since resolving
+            response.sendError(404, "Script not found");
+            return true;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String etag = getETag(variant, attributes.size(), lastModified);
+
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Cache-Control", "public, max-age=" + MAX_AGE_SECONDS);
+        response.setHeader("Vary", "Accept-Encoding");
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(304);
+            return true;
+        }
+
+        response.setStatus(200);
+        response.setContentType("text/javascript;charset=UTF-8");
+        if (encoding.contentEncoding != null) {
+            response.setHeader("Content-Encoding", encoding.contentEncoding);
+        }
+        response.setContentLength(Math.toIntExact(attributes.size()));
+
+        if (!head) {
+            try (OutputStream out = response.getOutputStream()) {
+                Files.copy(variant, out);
+            }
+        }
+        return true;
+    }
+
+    private Path resolveFile(String trackingId) {
+        if (trackingId != null && TRACKING_ID.matcher(trackingId).matches()) {
+            Path file = Path.of(directory, trackingId + ".js");
+            if (Files.isRegularFile(file)) {
+                return file;
+            }
+        }
+        Path file = Path.of(directory, DEFAULT_FILE);
+        return Files.isRegularFile(file) ? file : null;
+    }
+
+    private static Encoding selectEncoding(Path file, String acceptEncoding) {
+        if (acceptEncoding != null) {
+            for (Encoding encoding : Encoding.values()) {
+                if (encoding.contentEncoding != null && accepts(acceptEncoding, encoding.contentEncoding)
+                        && Files.isRegularFile(file.resolveSibling(file.getFileName() + encoding.suffix))) {
+                    return encoding;
+                }
+            }
+        }
+        return Encoding.IDENTITY;
+    }
+
+    private static boolean accepts(String acceptEncoding, String contentEncoding) {
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase(contentEncoding)) {
+                // Accepted unless refused with q=0
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNotModified(VaadinRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String trimmed = candidate.trim();
+                if (trimmed.equals(etag) || trimmed.equals("*")) {
+                    return true;
+                }
+            }
+            // If-Modified-Since is ignored when If-None-Match is present
+            return false;
+        }
+
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates have a resolution of one second
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private String getETag(Path file, long size, long lastModified) throws IOException {
+        String key = file.toString();
+        FileTag tag = tags.get(key);
+        if (tag == null || tag.size != size || tag.lastModified != lastModified) {
+            tag = new FileTag(size, lastModified, '"' + hash(file) + '"');
+            tags.put(key, tag);
+        }
+        return tag.etag;
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        // 128 bits is plenty for telling versions apart
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+}
@@ -1,10 +1,16 @@
 package org.vaadin.googleanalytics.tracking;
 
 import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.LogLevel;
 
@@ -21,10 +27,148 @@ public class TrackerConfiguration {
      */
     public static final String DEFAULT_COOKIE_DOMAIN = "auto";
 
+    private static final String DEFAULT_SCRIPT_URL = "https://www.googletagmanager.com/gtag/js";
+
+    /**
+     * The default maximum number of commands that are queued for one UI. This
+     * limit is also used before the tracker has been initialized.
+     */
+    public static final int DEFAULT_MAX_PENDING_ACTIONS = 500;
+
+    /**
+     * Ways of delivering tracked commands to Google Analytics.
+     */
+    public enum Transport {
+        /**
+         * Send commands to <code>gtag</code> in the browser. This is the
+         * default transport.
+         */
+        BROWSER,
+        /**
+         * Post events directly from the server using the GA4 Measurement
+         * Protocol. Only <code>event</code> commands are delivered. Requires an
+         * API secret to be configured.
+         *
+         * @see TrackerConfiguration#setMeasurementProtocolApiSecret(String)
+         */
+        MEASUREMENT_PROTOCOL,
+        /**
+         * Collect events in the browser and send them in batches to an
+         * endpoint in the application, which forwards them to the configured
+         * upstream. By default, events are forwarded using the Measurement
+         * Protocol, which requires an API secret to be configured. The
+         * <code>gtag</code> script is not loaded.
+         *
+         * @see GoogleAnalyticsTracker#setCollectionUpstream(CollectionUpstream)
+         */
+        PROXY;
+    }
+
+    /**
+     * When to load the Google Analytics script in the browser. Commands sent
+     * before the script has been loaded are kept in <code>dataLayer</code> and
+     * processed when it loads.
+     *
+     * @see TrackerConfiguration#setScriptLoading(ScriptLoading)
+     */
+    public enum ScriptLoading {
+        /**
+         * Load the script together with the application's own resources. This
+         * is the default.
+         */
+        EAGER,
+        /**
+         * Load the script after the initial page has been rendered.
+         */
+        LAZY,
+        /**
+         * Load the script when the browser is idle, using
+         * <code>requestIdleCallback</code> where supported.
+         */
+        IDLE,
+        /**
+         * Load the script on the first user interaction, e.g. a click, key
+         * press or scroll. Nothing is sent to Google Analytics for users that
+         * never interact with the page.
+         */
+        INTERACTION;
+    }
+
+    /**
+     * What to do when a command is tracked while the queue of pending commands
+     * is full.
+     *
+     * @see TrackerConfiguration#setMaxPendingActions(int)
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest queued command to make room for the new one. This
+         * is the default policy, and it is also used before the tracker has
+         * been initialized.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the new command.
+         */
+        DROP_NEWEST,
+        /**
+         * Replace the most recently queued event with the same name as the new
+         * event. If there is no such event, the new command is discarded.
+         */
+        COALESCE;
+    }
+
+    /**
+     * Which occurrence of a duplicate event to keep.
+     *
+     * @see TrackerConfiguration#setDeduplicationInterval(Duration)
+     */
+    public enum DeduplicationMode {
+        /**
+         * Send the first occurrence and drop any duplicates that follow within
+         * the deduplication interval.
+         */
+        FIRST,
+        /**
+         * Replace an earlier occurrence that has not yet been sent to the
+         * browser with the latest one. Duplicates that arrive after the
+         * earlier occurrence has been sent are not dropped. This is the
+         * default mode.
+         */
+        LAST;
+    }
+
     private String trackingId;
+    private boolean enabled = true;
     private String cookieDomain = DEFAULT_COOKIE_DOMAIN;
     private String pageViewPrefix = "";
-    private String scriptUrl = "https://www.googletagmanager.com/gtag/js";
+    private boolean routeTemplatePageViews;
+    private Set<String> allowedQueryParameters;
+    private Set<String> deniedQueryParameters = Collections.emptySet();
+    /**
+     * Explicitly configured script URL, or <code>null</code> to use the
+     * default.
+     */
+    private String scriptUrl;
+    private boolean batchActions = true;
+    private boolean cacheable = true;
+    private Transport transport = Transport.BROWSER;
+    private String measurementProtocolUrl = MeasurementProtocolDispatcher.DEFAULT_ENDPOINT;
+    private String measurementProtocolApiSecret;
+    private boolean measurementProtocolCompression;
+    private double sampleRate = 1;
+    private final Map<String, Double> eventSampleRates = new LinkedHashMap<>();
+    private int maxEventsPerSecond;
+    private Duration deduplicationInterval = Duration.ZERO;
+    private DeduplicationMode deduplicationMode = DeduplicationMode.LAST;
+    private List<String> deduplicationParameters = Collections.emptyList();
+    private int maxPendingActions = DEFAULT_MAX_PENDING_ACTIONS;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private Duration flushInterval = Duration.ZERO;
+    private List<String> aggregatedEvents = Collections.emptyList();
+    private Duration aggregationInterval = Duration.ZERO;
+    private ScriptLoading scriptLoading = ScriptLoading.EAGER;
+    private boolean preconnect;
 
     private final Map<String, Serializable> gaDebug = new LinkedHashMap<>();
 
@@ -32,6 +176,17 @@ public class TrackerConfiguration {
 
     private final Map<String, Serializable> initialValues = new LinkedHashMap<>();
 
+    private final Map<String, MeasurementIdSettings> additionalMeasurementIds = new LinkedHashMap<>();
+
+    /**
+     * Settings for an additional measurement id.
+     */
+    private static final class MeasurementIdSettings {
+        private final Map<String, Serializable> fields = new LinkedHashMap<>();
+        private double sampleRate = 1;
+        private Set<String> eventNames;
+    }
+
     private TrackerConfiguration() {
         // Create through static factory methods
     }
@@ -45,6 +200,191 @@ public class TrackerConfiguration {
         return trackingId;
     }
 
+    /**
+     * Sets whether tracking is enabled. A tracker with a disabled
+     * configuration doesn't load any script or run any JavaScript in the
+     * browser, and discards all commands before encoding them. Discarded
+     * commands are logged at debug level to the logger
+     * <code>org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker.disabled</code>.
+     * By default, tracking is disabled if the send mode of the annotation
+     * says that nothing should be sent, e.g. when not in production mode.
+     *
+     * @see EnableGoogleAnalytics#sendMode()
+     * @see GoogleAnalyticsTracker#DISABLED_PROPERTY
+     *
+     * @param enabled
+     *            <code>true</code> to enable tracking, <code>false</code> to
+     *            disable it
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    /**
+     * Checks whether tracking is enabled.
+     *
+     * @see #setEnabled(boolean)
+     *
+     * @return <code>true</code> if tracking is enabled, otherwise
+     *         <code>false</code>
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds a measurement id that events are also sent to. All events are sent
+     * to every measurement id in a single command, so an additional id does
+     * not increase the amount of data sent to the browser unless sampling or
+     * filtering excludes some events from some ids. Additional measurement
+     * ids are only used with {@link Transport#BROWSER}.
+     *
+     * @see #setMeasurementIdField(String, String, Serializable)
+     * @see #setMeasurementIdSampleRate(String, double)
+     * @see #setMeasurementIdEventNames(String, String...)
+     *
+     * @param measurementId
+     *            the measurement id to add, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration addMeasurementId(String measurementId) {
+        if (measurementId == null || measurementId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Measurement id must be defined");
+        }
+        additionalMeasurementIds.putIfAbsent(measurementId, new MeasurementIdSettings());
+        return this;
+    }
+
+    /**
+     * Removes an additional measurement id together with its settings.
+     *
+     * @param measurementId
+     *            the measurement id to remove, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration removeMeasurementId(String measurementId) {
+        additionalMeasurementIds.remove(Objects.requireNonNull(measurementId));
+        return this;
+    }
+
+    /**
+     * Gets the additional measurement ids that events are also sent to.
+     *
+     * @see #addMeasurementId(String)
+     *
+     * @return an unmodifiable list of measurement ids, not <code>null</code>
+     */
+    public List<String> getMeasurementIds() {
+        return Collections.unmodifiableList(new ArrayList<>(additionalMeasurementIds.keySet()));
+    }
+
+    private MeasurementIdSettings getSettings(String measurementId) {
+        MeasurementIdSettings settings = additionalMeasurementIds.get(Objects.requireNonNull(measurementId));
+        if (settings == null) {
+            throw new IllegalArgumentException("Measurement id " + measurementId + " has not been added");
+        }
+        return settings;
+    }
+
+    /**
+     * Sets a field for the <code>config</code> command of an additional
+     * measurement id, overriding any value used for the main tracking id.
+     *
+     * @param measurementId
+     *            an added measurement id, not <code>null</code>
+     * @param name
+     *            the name of the field, not <code>null</code>
+     * @param value
+     *            the field value, or <code>null</code> to remove the override
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setMeasurementIdField(String measurementId, String name, Serializable value) {
+        Map<String, Serializable> fields = getSettings(measurementId).fields;
+        if (value != null) {
+            fields.put(Objects.requireNonNull(name), value);
+        } else {
+            fields.remove(Objects.requireNonNull(name));
+        }
+        return this;
+    }
+
+    /**
+     * Gets the <code>config</code> field overrides of an additional
+     * measurement id.
+     *
+     * @param measurementId
+     *            an added measurement id, not <code>null</code>
+     * @return an unmodifiable map of fields, not <code>null</code>
+     */
+    public Map<String, Serializable> getMeasurementIdFields(String measurementId) {
+        return Collections.unmodifiableMap(getSettings(measurementId).fields);
+    }
+
+    /**
+     * Sets the fraction of users whose events are sent to an additional
+     * measurement id. This is applied on top of the sample rates that apply to
+     * all measurement ids, using the same per-session decision, so users
+     * sampled in for this id are always also sampled in for the main tracking
+     * id.
+     *
+     * @see #setSampleRate(double)
+     *
+     * @param measurementId
+     *            an added measurement id, not <code>null</code>
+     * @param sampleRate
+     *            the sample rate, between 0 and 1
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setMeasurementIdSampleRate(String measurementId, double sampleRate) {
+        getSettings(measurementId).sampleRate = checkRate(sampleRate);
+        return this;
+    }
+
+    /**
+     * Gets the fraction of users whose events are sent to an additional
+     * measurement id.
+     *
+     * @param measurementId
+     *            an added measurement id, not <code>null</code>
+     * @return the sample rate, between 0 and 1
+     */
+    public double getMeasurementIdSampleRate(String measurementId) {
+        return getSettings(measurementId).sampleRate;
+    }
+
+    /**
+     * Limits the events that are sent to an additional measurement id to the
+     * given event names. By default, all events are sent.
+     *
+     * @param measurementId
+     *            an added measurement id, not <code>null</code>
+     * @param eventNames
+     *            the names of the events to send, or <code>null</code> to
+     *            send all events
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setMeasurementIdEventNames(String measurementId, String... eventNames) {
+        getSettings(measurementId).eventNames = eventNames != null
+                ? Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(eventNames)))
+                : null;
+        return this;
+    }
+
+    /**
+     * Gets the names of the events that are sent to an additional measurement
+     * id.
+     *
+     * @param measurementId
+     *            an added measurement id, not <code>null</code>
+     * @return an unmodifiable set of event names, or <code>null</code> if all
+     *         events are sent
+     */
+    public Set<String> getMeasurementIdEventNames(String measurementId) {
+        return getSettings(measurementId).eventNames;
+    }
+
     /**
      * Sets the Google Analytics tracking ID to use.
      * 
@@ -99,7 +439,7 @@ public class TrackerConfiguration {
 
     /**
      * Sets a prefix that will be added to the location of all tracked page
-     * views.
+     * views. The prefix is added after the location has been normalized.
      * 
      * @param pageViewPrefix
      *            a page view prefix to use, not <code>null</code>
@@ -120,7 +460,102 @@ public class TrackerConfiguration {
     }
 
     /**
-     * Sets the URL from which to load the Google Analytics script.
+     * Sets whether automatically tracked page views of routes with URL
+     * parameters are reported with the route template instead of the actual
+     * path, e.g. <code>orders/:orderId</code> instead of
+     * <code>orders/123</code>, so that all views of the same route are counted
+     * as the same page. The template is taken from the <code>@Route</code>
+     * or <code>@RouteAlias</code> annotation of the navigation target. By
+     * default, the actual path is reported.
+     *
+     * @param routeTemplatePageViews
+     *            <code>true</code> to report route templates,
+     *            <code>false</code> to report actual paths
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setRouteTemplatePageViews(boolean routeTemplatePageViews) {
+        this.routeTemplatePageViews = routeTemplatePageViews;
+        return this;
+    }
+
+    /**
+     * Checks whether page views are reported with route templates.
+     *
+     * @see #setRouteTemplatePageViews(boolean)
+     *
+     * @return <code>true</code> if route templates are reported
+     */
+    public boolean isRouteTemplatePageViews() {
+        return routeTemplatePageViews;
+    }
+
+    /**
+     * Limits the query parameters that are included in the location of page
+     * views to the given names. By default, all query parameters are
+     * included.
+     *
+     * @see #setDeniedQueryParameters(String...)
+     *
+     * @param names
+     *            the names of the query parameters to include, or
+     *            <code>null</code> to include all parameters that are not
+     *            denied
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setAllowedQueryParameters(String... names) {
+        allowedQueryParameters = names != null ? toNameSet(names) : null;
+        return this;
+    }
+
+    /**
+     * Gets the names of the query parameters that are included in the
+     * location of page views.
+     *
+     * @return an unmodifiable set of names, or <code>null</code> if all
+     *         parameters that are not denied are included
+     */
+    public Set<String> getAllowedQueryParameters() {
+        return allowedQueryParameters;
+    }
+
+    /**
+     * Sets the names of query parameters that are removed from the location
+     * of page views, e.g. parameters with personal data or session specific
+     * tokens.
+     *
+     * @see #setAllowedQueryParameters(String...)
+     *
+     * @param names
+     *            the names of the query parameters to remove, not
+     *            <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setDeniedQueryParameters(String... names) {
+        deniedQueryParameters = toNameSet(names);
+        return this;
+    }
+
+    /**
+     * Gets the names of query parameters that are removed from the location
+     * of page views.
+     *
+     * @return an unmodifiable set of names, not <code>null</code>
+     */
+    public Set<String> getDeniedQueryParameters() {
+        return deniedQueryParameters;
+    }
+
+    private static Set<String> toNameSet(String... names) {
+        Set<String> set = new LinkedHashSet<>(Arrays.asList(names));
+        set.forEach(Objects::requireNonNull);
+        return Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Sets the URL from which to load the Google Analytics script. By default,
+     * the script is loaded from Google's servers, or from the application
+     * itself if {@link GoogleAnalyticsTracker#SCRIPT_DIRECTORY_PROPERTY} has
+     * been configured.
      * 
      * @param scriptUrl
      *            the script URL to use, not <code>null</code>
@@ -137,7 +572,572 @@ public class TrackerConfiguration {
      * @return scriptUrl
      */
     public String getScriptUrl() {
-        return scriptUrl+"?id="+this.trackingId;
+        return (scriptUrl != null ? scriptUrl : DEFAULT_SCRIPT_URL) + "?id=" + this.trackingId;
+    }
+
+    /**
+     * Checks whether a script URL has been set explicitly.
+     */
+    boolean hasScriptUrl() {
+        return scriptUrl != null;
+    }
+
+    /**
+     * Sets when the Google Analytics script is loaded in the browser. The
+     * default is {@link ScriptLoading#EAGER}.
+     *
+     * @param scriptLoading
+     *            the script loading strategy, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setScriptLoading(ScriptLoading scriptLoading) {
+        this.scriptLoading = Objects.requireNonNull(scriptLoading);
+        return this;
+    }
+
+    /**
+     * Gets when the Google Analytics script is loaded in the browser.
+     *
+     * @see #setScriptLoading(ScriptLoading)
+     *
+     * @return the script loading strategy, not <code>null</code>
+     */
+    public ScriptLoading getScriptLoading() {
+        return scriptLoading;
+    }
+
+    /**
+     * Sets whether the application's host page should tell the browser to
+     * connect to the script host in advance, using <code>preconnect</code> and
+     * <code>dns-prefetch</code> links. The links are added to all pages
+     * loaded after a tracker with this configuration has been initialized.
+     * Disabled by default.
+     *
+     * @param preconnect
+     *            <code>true</code> to add preconnect links, otherwise
+     *            <code>false</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setPreconnect(boolean preconnect) {
+        this.preconnect = preconnect;
+        return this;
+    }
+
+    /**
+     * Checks whether preconnect links are added for the script host.
+     *
+     * @see #setPreconnect(boolean)
+     *
+     * @return <code>true</code> if preconnect links are added, otherwise
+     *         <code>false</code>
+     */
+    public boolean isPreconnect() {
+        return preconnect;
+    }
+
+    /**
+     * Sets whether all commands pending for a response should be sent to the
+     * browser as a single client-side call instead of one call per command.
+     * Batching is enabled by default.
+     *
+     * @param batchActions
+     *            <code>true</code> to send pending commands in one call,
+     *            <code>false</code> to send each command separately
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setBatchActions(boolean batchActions) {
+        this.batchActions = batchActions;
+        return this;
+    }
+
+    /**
+     * Checks whether pending commands are sent to the browser as a single
+     * client-side call.
+     *
+     * @see #setBatchActions(boolean)
+     *
+     * @return <code>true</code> if commands are batched, otherwise
+     *         <code>false</code>
+     */
+    public boolean isBatchActions() {
+        return batchActions;
+    }
+
+    /**
+     * Sets whether this configuration may be reused for all UIs that use the
+     * same router layout class. Configurations are cacheable by default. A
+     * {@link TrackerConfigurator} that produces different settings for
+     * different UIs should mark the configuration as not cacheable so that it
+     * is invoked separately for each UI.
+     *
+     * @param cacheable
+     *            <code>true</code> to allow reusing this configuration,
+     *            <code>false</code> to resolve it separately for each UI
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setCacheable(boolean cacheable) {
+        this.cacheable = cacheable;
+        return this;
+    }
+
+    /**
+     * Checks whether this configuration may be reused for all UIs that use the
+     * same router layout class.
+     *
+     * @see #setCacheable(boolean)
+     *
+     * @return <code>true</code> if the configuration is cacheable, otherwise
+     *         <code>false</code>
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * Sets how tracked commands are delivered to Google Analytics. By default,
+     * {@link Transport#BROWSER} is used.
+     *
+     * @param transport
+     *            the transport to use, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setTransport(Transport transport) {
+        this.transport = Objects.requireNonNull(transport);
+        return this;
+    }
+
+    /**
+     * Gets how tracked commands are delivered to Google Analytics.
+     *
+     * @see #setTransport(Transport)
+     *
+     * @return the transport, not <code>null</code>
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the URL to post Measurement Protocol events to. This is mainly
+     * useful for pointing the tracker to a local stub in tests.
+     *
+     * @see Transport#MEASUREMENT_PROTOCOL
+     *
+     * @param measurementProtocolUrl
+     *            the endpoint URL, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setMeasurementProtocolUrl(String measurementProtocolUrl) {
+        this.measurementProtocolUrl = Objects.requireNonNull(measurementProtocolUrl);
+        return this;
+    }
+
+    /**
+     * Gets the URL to post Measurement Protocol events to.
+     *
+     * @return the endpoint URL, not <code>null</code>
+     */
+    public String getMeasurementProtocolUrl() {
+        return measurementProtocolUrl;
+    }
+
+    /**
+     * Sets the API secret to use with the Measurement Protocol. The secret is
+     * created in the data stream settings of the Google Analytics admin
+     * interface.
+     *
+     * @see Transport#MEASUREMENT_PROTOCOL
+     *
+     * @param measurementProtocolApiSecret
+     *            the API secret, or <code>null</code> to clear the secret
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setMeasurementProtocolApiSecret(String measurementProtocolApiSecret) {
+        this.measurementProtocolApiSecret = measurementProtocolApiSecret;
+        return this;
+    }
+
+    /**
+     * Gets the API secret to use with the Measurement Protocol.
+     *
+     * @return the API secret, or <code>null</code> if not set
+     */
+    public String getMeasurementProtocolApiSecret() {
+        return measurementProtocolApiSecret;
+    }
+
+    /**
+     * Sets whether Measurement Protocol requests are gzip compressed. Only
+     * enable this if the endpoint accepts compressed request bodies. Disabled
+     * by default.
+     *
+     * @param measurementProtocolCompression
+     *            <code>true</code> to compress requests, otherwise
+     *            <code>false</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setMeasurementProtocolCompression(boolean measurementProtocolCompression) {
+        this.measurementProtocolCompression = measurementProtocolCompression;
+        return this;
+    }
+
+    /**
+     * Checks whether Measurement Protocol requests are gzip compressed.
+     *
+     * @see #setMeasurementProtocolCompression(boolean)
+     *
+     * @return <code>true</code> if requests are compressed, otherwise
+     *         <code>false</code>
+     */
+    public boolean isMeasurementProtocolCompression() {
+        return measurementProtocolCompression;
+    }
+
+    /**
+     * Sets the fraction of users whose events are sent. The decision is made
+     * once per session so that a user that is sampled in stays sampled in. By
+     * default, all events are sent.
+     *
+     * @param sampleRate
+     *            the sample rate, between 0 and 1
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setSampleRate(double sampleRate) {
+        this.sampleRate = checkRate(sampleRate);
+        return this;
+    }
+
+    /**
+     * Gets the fraction of users whose events are sent.
+     *
+     * @see #setSampleRate(double)
+     *
+     * @return the sample rate, between 0 and 1
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets a sample rate for events with the given name, overriding the global
+     * sample rate for those events.
+     *
+     * @see #setSampleRate(double)
+     *
+     * @param eventName
+     *            the event name, not <code>null</code>
+     * @param sampleRate
+     *            the sample rate, between 0 and 1
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setEventSampleRate(String eventName, double sampleRate) {
+        eventSampleRates.put(Objects.requireNonNull(eventName), checkRate(sampleRate));
+        return this;
+    }
+
+    /**
+     * Removes the sample rate for events with the given name so that the
+     * global sample rate is used.
+     *
+     * @param eventName
+     *            the event name, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration removeEventSampleRate(String eventName) {
+        eventSampleRates.remove(Objects.requireNonNull(eventName));
+        return this;
+    }
+
+    /**
+     * Gets the sample rates for specific event names.
+     *
+     * @see #setEventSampleRate(String, double)
+     *
+     * @return an unmodifiable map of sample rates, not <code>null</code>
+     */
+    public Map<String, Double> getEventSampleRates() {
+        return Collections.unmodifiableMap(eventSampleRates);
+    }
+
+    /**
+     * Enables adaptive sampling. When all trackers in the server together
+     * track more events per second than the given limit, sample rates are
+     * lowered in proportion so that roughly the limit is sent. By default,
+     * adaptive sampling is disabled.
+     *
+     * @param maxEventsPerSecond
+     *            the target maximum number of events per second, or 0 to
+     *            disable adaptive sampling
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setMaxEventsPerSecond(int maxEventsPerSecond) {
+        if (maxEventsPerSecond < 0) {
+            throw new IllegalArgumentException("Max events per second cannot be negative");
+        }
+        this.maxEventsPerSecond = maxEventsPerSecond;
+        return this;
+    }
+
+    /**
+     * Gets the target maximum number of events per second for adaptive
+     * sampling.
+     *
+     * @see #setMaxEventsPerSecond(int)
+     *
+     * @return the limit, or 0 if adaptive sampling is disabled
+     */
+    public int getMaxEventsPerSecond() {
+        return maxEventsPerSecond;
+    }
+
+    /**
+     * Enables suppression of duplicate events. Two events are considered
+     * duplicates if they have the same name and the same values for all
+     * deduplication parameters, and the later one is tracked within the given
+     * interval from the earlier one. Only a small number of recent events are
+     * remembered for each UI. By default, deduplication is disabled.
+     *
+     * @see #setDeduplicationMode(DeduplicationMode)
+     * @see #setDeduplicationParameters(String...)
+     *
+     * @param deduplicationInterval
+     *            the interval, or {@link Duration#ZERO} to disable
+     *            deduplication, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setDeduplicationInterval(Duration deduplicationInterval) {
+        if (deduplicationInterval.isNegative()) {
+            throw new IllegalArgumentException("Deduplication interval cannot be negative");
+        }
+        this.deduplicationInterval = deduplicationInterval;
+        return this;
+    }
+
+    /**
+     * Gets the interval within which duplicate events are suppressed.
+     *
+     * @see #setDeduplicationInterval(Duration)
+     *
+     * @return the interval, or {@link Duration#ZERO} if deduplication is
+     *         disabled
+     */
+    public Duration getDeduplicationInterval() {
+        return deduplicationInterval;
+    }
+
+    /**
+     * Sets which occurrence of a duplicate event is kept. The default mode is
+     * {@link DeduplicationMode#LAST}.
+     *
+     * @param deduplicationMode
+     *            the deduplication mode, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setDeduplicationMode(DeduplicationMode deduplicationMode) {
+        this.deduplicationMode = Objects.requireNonNull(deduplicationMode);
+        return this;
+    }
+
+    /**
+     * Gets which occurrence of a duplicate event is kept.
+     *
+     * @see #setDeduplicationMode(DeduplicationMode)
+     *
+     * @return the deduplication mode, not <code>null</code>
+     */
+    public DeduplicationMode getDeduplicationMode() {
+        return deduplicationMode;
+    }
+
+    /**
+     * Sets the event parameters that must also be equal for two events to be
+     * considered duplicates. By default, only the event name is compared, so
+     * e.g. page views for different locations are duplicates of each other.
+     *
+     * @param parameterNames
+     *            the names of the parameters to compare, not
+     *            <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setDeduplicationParameters(String... parameterNames) {
+        List<String> names = Arrays.asList(parameterNames.clone());
+        names.forEach(Objects::requireNonNull);
+        deduplicationParameters = Collections.unmodifiableList(names);
+        return this;
+    }
+
+    /**
+     * Gets the event parameters that are compared when deduplicating events.
+     *
+     * @see #setDeduplicationParameters(String...)
+     *
+     * @return an unmodifiable list of parameter names, not <code>null</code>
+     */
+    public List<String> getDeduplicationParameters() {
+        return deduplicationParameters;
+    }
+
+    /**
+     * Sets the maximum number of commands that are queued for one UI until
+     * the next response is sent. The default is
+     * {@value #DEFAULT_MAX_PENDING_ACTIONS}.
+     *
+     * @see #setOverflowPolicy(OverflowPolicy)
+     *
+     * @param maxPendingActions
+     *            the maximum number of queued commands, at least 1
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setMaxPendingActions(int maxPendingActions) {
+        if (maxPendingActions < 1) {
+            throw new IllegalArgumentException("Max pending actions must be at least 1");
+        }
+        this.maxPendingActions = maxPendingActions;
+        return this;
+    }
+
+    /**
+     * Gets the maximum number of commands that are queued for one UI.
+     *
+     * @see #setMaxPendingActions(int)
+     *
+     * @return the maximum number of queued commands
+     */
+    public int getMaxPendingActions() {
+        return maxPendingActions;
+    }
+
+    /**
+     * Sets what to do when a command is tracked while the queue is full. The
+     * default policy is {@link OverflowPolicy#DROP_OLDEST}.
+     *
+     * @param overflowPolicy
+     *            the overflow policy, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        return this;
+    }
+
+    /**
+     * Gets what to do when a command is tracked while the queue is full.
+     *
+     * @see #setOverflowPolicy(OverflowPolicy)
+     *
+     * @return the overflow policy, not <code>null</code>
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets how long commands sent from background threads are collected
+     * before they are handed over to the UI. With server push enabled, this
+     * limits the number of pushes when events are tracked in rapid
+     * succession. By default, commands are handed over immediately.
+     *
+     * @param flushInterval
+     *            the interval, or {@link Duration#ZERO} to hand over commands
+     *            immediately, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setFlushInterval(Duration flushInterval) {
+        if (flushInterval.isNegative()) {
+            throw new IllegalArgumentException("Flush interval cannot be negative");
+        }
+        this.flushInterval = flushInterval;
+        return this;
+    }
+
+    /**
+     * Gets how long commands sent from background threads are collected
+     * before they are handed over to the UI.
+     *
+     * @see #setFlushInterval(Duration)
+     *
+     * @return the interval, not <code>null</code>
+     */
+    public Duration getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets the names of events that are counted instead of being sent
+     * individually. Each UI keeps a count and a sum of the <code>value</code>
+     * parameter for every aggregated event name, and sends the totals as one
+     * event with the same name and the parameters <code>event_count</code>
+     * and <code>value</code>. Summaries are sent when the user navigates, at
+     * the configured aggregation interval and when the UI is detached.
+     * <p>
+     * Summaries for a detached UI can only be delivered with
+     * {@link Transport#MEASUREMENT_PROTOCOL} or {@link Transport#PROXY}, since
+     * the browser can no longer be reached. Events tracked before the tracker
+     * has been initialized are sent individually.
+     *
+     * @see #setAggregationInterval(Duration)
+     *
+     * @param eventNames
+     *            the names of the events to aggregate, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setAggregatedEvents(String... eventNames) {
+        List<String> names = Arrays.asList(eventNames.clone());
+        names.forEach(Objects::requireNonNull);
+        aggregatedEvents = Collections.unmodifiableList(names);
+        return this;
+    }
+
+    /**
+     * Gets the names of events that are counted instead of being sent
+     * individually.
+     *
+     * @see #setAggregatedEvents(String...)
+     *
+     * @return an unmodifiable list of event names, not <code>null</code>
+     */
+    public List<String> getAggregatedEvents() {
+        return aggregatedEvents;
+    }
+
+    /**
+     * Sets how often summaries of aggregated events are sent in addition to
+     * when the user navigates. Sending summaries at an interval requires
+     * server push, since there might not be any other requests from the
+     * browser. By default, summaries are only sent on navigation and detach.
+     *
+     * @see #setAggregatedEvents(String...)
+     *
+     * @param aggregationInterval
+     *            the interval, or {@link Duration#ZERO} to only send summaries
+     *            on navigation and detach, not <code>null</code>
+     * @return this configuration, for chaining
+     */
+    public TrackerConfiguration setAggregationInterval(Duration aggregationInterval) {
+        if (aggregationInterval.isNegative()) {
+            throw new IllegalArgumentException("Aggregation interval cannot be negative");
+        }
+        this.aggregationInterval = aggregationInterval;
+        return this;
+    }
+
+    /**
+     * Gets how often summaries of aggregated events are sent in addition to
+     * when the user navigates.
+     *
+     * @see #setAggregationInterval(Duration)
+     *
+     * @return the interval, not <code>null</code>
+     */
+    public Duration getAggregationInterval() {
+        return aggregationInterval;
+    }
+
+    private static double checkRate(double sampleRate) {
+        if (!(sampleRate >= 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+        }
+        return sampleRate;
     }
 
     /**
@@ -276,7 +1276,8 @@ public class TrackerConfiguration {
      * @param logLevel
      *            the log level to use, not <code>null</code>
      * @param sendHits
-     *            whether to send commands to Google Analytics
+     *            whether to send commands to Google Analytics, or to disable
+     *            tracking
      * @return a newly created tracker configuration, not <code>null</code>
      */
     public static TrackerConfiguration create(LogLevel logLevel, boolean sendHits) {
@@ -284,6 +1285,7 @@ public class TrackerConfiguration {
         logLevel.apply(config);
         if (!sendHits) {
             config.setInitialValue("sendHitTask", null);
+            config.setEnabled(false);
         }
         return config;
     }
@@ -306,6 +1308,7 @@ public class TrackerConfiguration {
         config.setTrackingId(annotation.value());
         config.setCookieDomain(annotation.cookieDomain());
         config.setPageViewPrefix(annotation.pageviewPrefix());
+        config.setSampleRate(annotation.sampleRate());
 
         return config;
     }
@@ -3,6 +3,10 @@ package org.vaadin.googleanalytics.tracking;
 /**
  * Programmatically configures a Google Analytics tracker if implemented by the
  * application's main router layout.
+ * <p>
+ * The resulting configuration is by default reused for all UIs with the same
+ * main layout class. Use {@link TrackerConfiguration#setCacheable(boolean)} if
+ * the configuration depends on the individual layout instance.
  */
 public interface TrackerConfigurator {
     /**
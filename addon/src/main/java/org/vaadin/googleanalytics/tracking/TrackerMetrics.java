@@ -0,0 +1,153 @@
+package org.vaadin.googleanalytics.tracking;
+
+/**
+ * Receives measurements about the work done by all trackers in the JVM. An
+ * implementation can be registered using
+ * {@link GoogleAnalyticsTracker#setMetrics(TrackerMetrics)}. All methods have
+ * empty default implementations so that an implementation only needs to
+ * override the measurements it is interested in.
+ * <p>
+ * Methods are called concurrently from request handling threads for many
+ * sessions, and dropped events can also be reported from background threads
+ * that do not hold any session lock. Implementations must therefore be thread
+ * safe, and should return quickly.
+ * Measurements are only computed when an implementation other than
+ * {@link #NO_OP} is registered, so that no extra work is done by default.
+ */
+public interface TrackerMetrics {
+    /**
+     * Metrics implementation that ignores all measurements. This is used by
+     * default.
+     */
+    TrackerMetrics NO_OP = new TrackerMetrics() {
+    };
+
+    /**
+     * Reasons for an event not being sent.
+     */
+    enum DropReason {
+        /**
+         * The event was dropped because of sampling.
+         *
+         * @see TrackerConfiguration#setSampleRate(double)
+         */
+        SAMPLED,
+        /**
+         * The event was dropped as a duplicate of an earlier event.
+         *
+         * @see TrackerConfiguration#setDeduplicationInterval(java.time.Duration)
+         */
+        DUPLICATE,
+        /**
+         * The page view for a navigation was not sent because a route target
+         * is annotated with @{@link IgnorePageView}.
+         */
+        IGNORED,
+        /**
+         * The event was discarded because the queue of pending commands was
+         * full.
+         *
+         * @see TrackerConfiguration#setMaxPendingActions(int)
+         */
+        OVERFLOW,
+        /**
+         * The event was discarded because the tracker could not be
+         * initialized and fail-open mode is enabled.
+         *
+         * @see GoogleAnalyticsTracker#FAIL_OPEN_PROPERTY
+         */
+        INIT_FAILED,
+        /**
+         * The event was sent from a background thread after the UI had been
+         * detached, or it was an aggregated event that could not be delivered
+         * when the UI was detached.
+         */
+        DETACHED;
+    }
+
+    /**
+     * Called when an event has been added to the queue of a tracker.
+     *
+     * @param eventName
+     *            the event name, not <code>null</code>
+     */
+    default void eventQueued(String eventName) {
+    }
+
+    /**
+     * Called when an event has been added to the summary counters of a
+     * tracker instead of being queued.
+     *
+     * @see TrackerConfiguration#setAggregatedEvents(String...)
+     *
+     * @param eventName
+     *            the event name, not <code>null</code>
+     */
+    default void eventAggregated(String eventName) {
+    }
+
+    /**
+     * Called when a queued event has been sent to the browser or handed over
+     * to the Measurement Protocol dispatcher.
+     *
+     * @param eventName
+     *            the event name, not <code>null</code>
+     */
+    default void eventFlushed(String eventName) {
+    }
+
+    /**
+     * Called when an event is dropped instead of being sent.
+     *
+     * @param eventName
+     *            the event name, not <code>null</code>
+     * @param reason
+     *            the reason for dropping the event, not <code>null</code>
+     */
+    default void eventDropped(String eventName, DropReason reason) {
+    }
+
+    /**
+     * Called when a tracker has been initialized.
+     *
+     * @param nanos
+     *            the time spent initializing, in nanoseconds
+     */
+    default void initCompleted(long nanos) {
+    }
+
+    /**
+     * Called when a tracker could not be initialized.
+     *
+     * @param cause
+     *            the exception that prevented initialization, not
+     *            <code>null</code>
+     */
+    default void initFailed(RuntimeException cause) {
+    }
+
+    /**
+     * Called when the queue of a tracker has been flushed before a response is
+     * sent.
+     *
+     * @param queueDepth
+     *            the number of queued commands, including events
+     * @param nanos
+     *            the time spent flushing, in nanoseconds, including any
+     *            initialization
+     */
+    default void flushCompleted(int queueDepth, long nanos) {
+    }
+
+    /**
+     * Called when commands have been sent to the browser.
+     *
+     * @param routeTarget
+     *            the class of the active route target, or <code>null</code> if
+     *            there is no active route target
+     * @param bytes
+     *            the size of the JavaScript arguments, as UTF-8 encoded JSON
+     */
+    default void argumentsSent(Class<?> routeTarget, long bytes) {
+    }
+}
@@ -0,0 +1,34 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import java.util.List;
+
+import elemental.json.JsonObject;
+
+/**
+ * The <code>add_to_cart</code> event.
+ *
+ * @param currency
+ *            the ISO 4217 currency code of the value, not <code>null</code>
+ * @param value
+ *            the monetary value of the added items
+ * @param items
+ *            the added items, not <code>null</code>
+ */
+public record AddToCartEvent(String currency, double value, List<Item> items) implements Event {
+    public AddToCartEvent {
+        Parameters.requireNonNull(currency, "Currency");
+        items = List.copyOf(Parameters.requireNonNull(items, "Items"));
+    }
+
+    @Override
+    public String eventName() {
+        return "add_to_cart";
+    }
+
+    @Override
+    public void encode(JsonObject parameters) {
+        parameters.put("currency", currency);
+        parameters.put("value", value);
+        Parameters.putItems(parameters, items);
+    }
+}
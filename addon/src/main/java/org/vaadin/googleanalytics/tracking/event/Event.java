@@ -0,0 +1,35 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import java.io.Serializable;
+
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+
+import elemental.json.JsonObject;
+
+/**
+ * A typed Google Analytics event that can be sent with
+ * {@link GoogleAnalyticsTracker#send(Event)}. Implementations encode their
+ * parameters directly to JSON, without an intermediate map or any reflective
+ * encoding.
+ * <p>
+ * Implementations are provided for the most common <a href=
+ * "https://developers.google.com/analytics/devguides/collection/ga4/reference/events">recommended
+ * events</a>. Other events can be sent by implementing this interface or with
+ * {@link GoogleAnalyticsTracker#ga(String, java.util.Map, Serializable...)}.
+ */
+public interface Event extends Serializable {
+    /**
+     * Gets the name of the event.
+     *
+     * @return the event name, not <code>null</code>
+     */
+    String eventName();
+
+    /**
+     * Writes the parameters of this event to the given object.
+     *
+     * @param parameters
+     *            the object to write to, not <code>null</code>
+     */
+    void encode(JsonObject parameters);
+}
@@ -0,0 +1,52 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import java.io.Serializable;
+
+import elemental.json.JsonObject;
+
+/**
+ * An item in an ecommerce event. At least one of the id and the name must be
+ * defined. Other values are optional and left out when <code>null</code>.
+ *
+ * @param itemId
+ *            the id or SKU of the item, or <code>null</code>
+ * @param itemName
+ *            the name of the item, or <code>null</code>
+ * @param itemCategory
+ *            the category of the item, or <code>null</code>
+ * @param price
+ *            the unit price of the item, or <code>null</code>
+ * @param quantity
+ *            the number of units, or <code>null</code>
+ */
+public record Item(String itemId, String itemName, String itemCategory, Double price, Integer quantity)
+        implements Serializable {
+    public Item {
+        if (itemId == null && itemName == null) {
+            throw new IllegalArgumentException("Either the item id or the item name must be defined");
+        }
+    }
+
+    /**
+     * Creates an item with an id, a price and a quantity.
+     *
+     * @param itemId
+     *            the id or SKU of the item, not <code>null</code>
+     * @param price
+     *            the unit price of the item
+     * @param quantity
+     *            the number of units
+     */
+    public Item(String itemId, double price, int quantity) {
+        this(Parameters.requireNonNull(itemId, "Item id"), null, null, Double.valueOf(price),
+                Integer.valueOf(quantity));
+    }
+
+    void encode(JsonObject parameters) {
+        Parameters.put(parameters, "item_id", itemId);
+        Parameters.put(parameters, "item_name", itemName);
+        Parameters.put(parameters, "item_category", itemCategory);
+        Parameters.put(parameters, "price", price);
+        Parameters.put(parameters, "quantity", quantity);
+    }
+}
@@ -0,0 +1,21 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import elemental.json.JsonObject;
+
+/**
+ * The <code>login</code> event.
+ *
+ * @param method
+ *            the method used to log in, or <code>null</code>
+ */
+public record LoginEvent(String method) implements Event {
+    @Override
+    public String eventName() {
+        return "login";
+    }
+
+    @Override
+    public void encode(JsonObject parameters) {
+        Parameters.put(parameters, "method", method);
+    }
+}
@@ -0,0 +1,40 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import elemental.json.JsonObject;
+
+/**
+ * The <code>page_view</code> event. Page views are sent automatically on
+ * navigation, so this is only needed for views that are not separate routes.
+ *
+ * @param location
+ *            the location of the page, not <code>null</code>
+ * @param title
+ *            the title of the page, or <code>null</code> to use the current
+ *            document title
+ */
+public record PageViewEvent(String location, String title) implements Event {
+    public PageViewEvent {
+        Parameters.requireNonNull(location, "Location");
+    }
+
+    /**
+     * Creates a page view event without a title.
+     *
+     * @param location
+     *            the location of the page, not <code>null</code>
+     */
+    public PageViewEvent(String location) {
+        this(location, null);
+    }
+
+    @Override
+    public String eventName() {
+        return "page_view";
+    }
+
+    @Override
+    public void encode(JsonObject parameters) {
+        parameters.put("page_location", location);
+        Parameters.put(parameters, "page_title", title);
+    }
+}
@@ -0,0 +1,48 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import java.util.List;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+
+/**
+ * Helpers for writing optional event parameters.
+ */
+final class Parameters {
+    private Parameters() {
+        // Only static helpers
+    }
+
+    static void put(JsonObject parameters, String name, String value) {
+        if (value != null) {
+            parameters.put(name, value);
+        }
+    }
+
+    static void put(JsonObject parameters, String name, Number value) {
+        if (value != null) {
+            parameters.put(name, value.doubleValue());
+        }
+    }
+
+    static void putItems(JsonObject parameters, List<Item> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        JsonArray array = Json.createArray();
+        for (int i = 0; i < items.size(); i++) {
+            JsonObject item = Json.createObject();
+            items.get(i).encode(item);
+            array.set(i, item);
+        }
+        parameters.put("items", array);
+    }
+
+    static <T> T requireNonNull(T value, String name) {
+        if (value == null) {
+            throw new IllegalArgumentException(name + " must be defined");
+        }
+        return value;
+    }
+}
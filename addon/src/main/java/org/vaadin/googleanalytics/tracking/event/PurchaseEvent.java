@@ -0,0 +1,65 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import java.util.List;
+
+import elemental.json.JsonObject;
+
+/**
+ * The <code>purchase</code> event.
+ *
+ * @param transactionId
+ *            the unique id of the transaction, not <code>null</code>
+ * @param currency
+ *            the ISO 4217 currency code of the amounts, not <code>null</code>
+ * @param value
+ *            the total value of the purchase
+ * @param tax
+ *            the tax amount, or <code>null</code>
+ * @param shipping
+ *            the shipping cost, or <code>null</code>
+ * @param coupon
+ *            the coupon code used, or <code>null</code>
+ * @param items
+ *            the purchased items, not <code>null</code>
+ */
+public record PurchaseEvent(String transactionId, String currency, double value, Double tax, Double shipping,
+        String coupon, List<Item> items) implements Event {
+    public PurchaseEvent {
+        Parameters.requireNonNull(transactionId, "Transaction id");
+        Parameters.requireNonNull(currency, "Currency");
+        items = List.copyOf(Parameters.requireNonNull(items, "Items"));
+    }
+
+    /**
+     * Creates a purchase event without tax, shipping or coupon.
+     *
+     * @param transactionId
+     *            the unique id of the transaction, not <code>null</code>
+     * @param currency
+     *            the ISO 4217 currency code of the value, not
+     *            <code>null</code>
+     * @param value
+     *            the total value of the purchase
+     * @param items
+     *            the purchased items, not <code>null</code>
+     */
+    public PurchaseEvent(String transactionId, String currency, double value, List<Item> items) {
+        this(transactionId, currency, value, null, null, null, items);
+    }
+
+    @Override
+    public String eventName() {
+        return "purchase";
+    }
+
+    @Override
+    public void encode(JsonObject parameters) {
+        parameters.put("transaction_id", transactionId);
+        parameters.put("currency", currency);
+        parameters.put("value", value);
+        Parameters.put(parameters, "tax", tax);
+        Parameters.put(parameters, "shipping", shipping);
+        Parameters.put(parameters, "coupon", coupon);
+        Parameters.putItems(parameters, items);
+    }
+}
@@ -0,0 +1,25 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import elemental.json.JsonObject;
+
+/**
+ * The <code>search</code> event.
+ *
+ * @param searchTerm
+ *            the term that was searched for, not <code>null</code>
+ */
+public record SearchEvent(String searchTerm) implements Event {
+    public SearchEvent {
+        Parameters.requireNonNull(searchTerm, "Search term");
+    }
+
+    @Override
+    public String eventName() {
+        return "search";
+    }
+
+    @Override
+    public void encode(JsonObject parameters) {
+        parameters.put("search_term", searchTerm);
+    }
+}
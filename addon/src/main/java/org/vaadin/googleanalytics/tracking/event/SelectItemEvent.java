@@ -0,0 +1,48 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import java.util.List;
+
+import elemental.json.JsonObject;
+
+/**
+ * The <code>select_item</code> event.
+ *
+ * @param itemListId
+ *            the id of the list the item was selected from, or
+ *            <code>null</code>
+ * @param itemListName
+ *            the name of the list the item was selected from, or
+ *            <code>null</code>
+ * @param items
+ *            the selected items, not <code>null</code>
+ */
+public record SelectItemEvent(String itemListId, String itemListName, List<Item> items) implements Event {
+    public SelectItemEvent {
+        items = List.copyOf(Parameters.requireNonNull(items, "Items"));
+    }
+
+    /**
+     * Creates an event for selecting one item.
+     *
+     * @param itemListId
+     *            the id of the list the item was selected from, or
+     *            <code>null</code>
+     * @param item
+     *            the selected item, not <code>null</code>
+     */
+    public SelectItemEvent(String itemListId, Item item) {
+        this(itemListId, null, List.of(item));
+    }
+
+    @Override
+    public String eventName() {
+        return "select_item";
+    }
+
+    @Override
+    public void encode(JsonObject parameters) {
+        Parameters.put(parameters, "item_list_id", itemListId);
+        Parameters.put(parameters, "item_list_name", itemListName);
+        Parameters.putItems(parameters, items);
+    }
+}
@@ -0,0 +1,21 @@
+package org.vaadin.googleanalytics.tracking.event;
+
+import elemental.json.JsonObject;
+
+/**
+ * The <code>sign_up</code> event.
+ *
+ * @param method
+ *            the method used to sign up, or <code>null</code>
+ */
+public record SignUpEvent(String method) implements Event {
+    @Override
+    public String eventName() {
+        return "sign_up";
+    }
+
+    @Override
+    public void encode(JsonObject parameters) {
+        Parameters.put(parameters, "method", method);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Client-side bootstrap for the Vaadin Google Analytics tracker. Loaded once
+ * per page and cached by the browser; the server only calls the small API
+ * exposed as window.vaadinGa.
+ */
+(function () {
+  if (window.vaadinGa) {
+    return;
+  }
+
+  window.dataLayer = window.dataLayer || [];
+  window.gtag = window.gtag || function () {
+    window.dataLayer.push(arguments);
+  };
+
+  var started = false;
+  var loadRequested = false;
+
+  var INTERACTION_EVENTS = ['pointerdown', 'keydown', 'touchstart', 'scroll'];
+
+  // Batching state when events are sent through the collection endpoint
+  var PROXY_BATCH_SIZE = 20;
+  var PROXY_DELAY = 1000;
+  var proxy = null;
+
+  function flushProxy() {
+    if (proxy.timer) {
+      clearTimeout(proxy.timer);
+      proxy.timer = null;
+    }
+    while (proxy.events.length) {
+      var body = JSON.stringify({
+        tid: proxy.trackingId,
+        cid: proxy.clientId,
+        events: proxy.events.splice(0, PROXY_BATCH_SIZE)
+      });
+      var blob = new Blob([body], { type: 'application/json' });
+      if (!(navigator.sendBeacon && navigator.sendBeacon(proxy.url, blob))) {
+        fetch(proxy.url, { method: 'POST', body: blob, keepalive: true, credentials: 'same-origin' });
+      }
+    }
+  }
+
+  // The fields object of an event is its last argument, if that is an object
+  function eventParams(args) {
+    var last = args[args.length - 1];
+    return args.length > 2 && last && typeof last === 'object' && !Array.isArray(last) ? last : null;
+  }
+
+  function run(args) {
+    if (!proxy) {
+      window.gtag.apply(null, args);
+    } else if (args[0] === 'event') {
+      proxy.events.push({ name: args[1], params: Object.assign({}, proxy.defaults, eventParams(args)) });
+    } else if (args[0] === 'set' && args[1] && typeof args[1] === 'object') {
+      // Default parameters, applied like gtag would apply them
+      for (var name in args[1]) {
+        if (args[1][name] === null) {
+          delete proxy.defaults[name];
+        } else {
+          proxy.defaults[name] = args[1][name];
+        }
+      }
+    }
+    // Other commands only concern gtag, which is not loaded
+  }
+
+  function afterRun() {
+    if (!proxy || !proxy.events.length) {
+      return;
+    }
+    if (proxy.events.length >= PROXY_BATCH_SIZE) {
+      flushProxy();
+    } else if (!proxy.timer) {
+      proxy.timer = setTimeout(flushProxy, PROXY_DELAY);
+    }
+  }
+
+  function injectScript(url) {
+    var script = document.createElement('script');
+    script.async = true;
+    script.src = url;
+    document.head.appendChild(script);
+  }
+
+  function debugEnabled() {
+    return !!(window.ga_debug || (window.Vaadin && window.Vaadin.developmentMode));
+  }
+
+  window.vaadinGa = {
+    /**
+     * Starts gtag. The optional debug settings are assigned to window.ga_debug.
+     */
+    init: function (gaDebug) {
+      if (gaDebug) {
+        window.ga_debug = gaDebug;
+      }
+      if (!started) {
+        started = true;
+        window.gtag('js', new Date());
+        if (debugEnabled()) {
+          console.log('Loaded Vaadin GA');
+        }
+      }
+    },
+
+    /**
+     * Loads the gtag script once the given condition is met: 'idle' waits for
+     * the browser to be idle and 'interaction' waits for the first user
+     * interaction. Commands run before that are kept in dataLayer.
+     */
+    load: function (url, strategy) {
+      if (loadRequested) {
+        return;
+      }
+      loadRequested = true;
+
+      if (strategy === 'interaction') {
+        var options = { capture: true, passive: true };
+        var onInteraction = function () {
+          for (var i = 0; i < INTERACTION_EVENTS.length; i++) {
+            window.removeEventListener(INTERACTION_EVENTS[i], onInteraction, options);
+          }
+          injectScript(url);
+        };
+        for (var i = 0; i < INTERACTION_EVENTS.length; i++) {
+          window.addEventListener(INTERACTION_EVENTS[i], onInteraction, options);
+        }
+      } else if (window.requestIdleCallback) {
+        // Don't wait forever on a page that is never idle
+        window.requestIdleCallback(function () {
+          injectScript(url);
+        }, { timeout: 5000 });
+      } else {
+        setTimeout(function () {
+          injectScript(url);
+        }, 1);
+      }
+    },
+
+    /**
+     * Sends events to the collection endpoint at the given URL instead of
+     * gtag. Events are batched for a short while and always flushed when the
+     * page is hidden.
+     */
+    proxy: function (url, trackingId, clientId) {
+      if (proxy) {
+        return;
+      }
+      proxy = { url: url, trackingId: trackingId, clientId: clientId, events: [], defaults: {}, timer: null };
+      document.addEventListener('visibilitychange', function () {
+        if (document.visibilityState === 'hidden') {
+          flushProxy();
+        }
+      });
+      window.addEventListener('pagehide', flushProxy);
+    },
+
+    /**
+     * Runs a single gtag command given as an arguments-like object.
+     */
+    command: function (args) {
+      if (debugEnabled()) {
+        console.log(args);
+      }
+      run(args);
+      afterRun();
+    },
+
+    /**
+     * Runs an array of gtag commands, each given as an array of arguments.
+     */
+    send: function (actions) {
+      if (debugEnabled()) {
+        console.log(actions);
+      }
+      for (var i = 0; i < actions.length; i++) {
+        run(actions[i]);
+      }
+      afterRun();
+    }
+  };
+})();
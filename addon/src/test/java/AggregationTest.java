@@ -0,0 +1,51 @@
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+public class AggregationTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class Layout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setAggregatedEvents("scroll");
+        }
+    }
+
+    @Test
+    public void aggregatedEventsAreSentAsOneSummary() {
+        TestUI ui = new TestUI(new Layout());
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+
+        // Initialize the tracker
+        tracker.sendEvent("grid", "open");
+        ui.respond();
+
+        for (int i = 1; i <= 3; i++) {
+            Map<String, Serializable> fields = new HashMap<>();
+            fields.put("value", Integer.valueOf(i));
+            tracker.ga("event", fields, "scroll");
+        }
+        Assert.assertEquals("", ui.respond());
+
+        tracker.sendSummaries();
+        String json = ui.respond();
+        Assert.assertTrue(json, json.contains("[\"event\",\"scroll\",{\"event_count\":3,\"value\":6}"));
+
+        tracker.sendSummaries();
+        Assert.assertEquals("", ui.respond());
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+public class BatchingTest {
+
+    private static final String SEND_ACTIONS_JS = "window.vaadinGa.send($0)";
+    private static final String SEND_ACTION_JS = "window.vaadinGa.command(arguments)";
+
+    private static boolean batchActions;
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class Layout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setBatchActions(batchActions).setCacheable(false);
+        }
+    }
+
+    private TestUI ui;
+    private GoogleAnalyticsTracker tracker;
+
+    @Before
+    public void reset() {
+        batchActions = true;
+    }
+
+    /**
+     * Creates and initializes a tracker with the current settings and forgets
+     * the scripts executed during initialization.
+     */
+    private void createTracker() {
+        ui = new TestUI(new Layout());
+        tracker = GoogleAnalyticsTracker.get(ui);
+        tracker.sendEvent("page", "init");
+        ui.respond();
+        ui.getExecutedScripts().clear();
+    }
+
+    private int countExecuted(String script) {
+        return Collections.frequency(ui.getExecutedScripts(), script);
+    }
+
+    @Test
+    public void queuedActionsAreSentInOneCall() {
+        createTracker();
+
+        tracker.sendEvent("grid", "open");
+        tracker.sendEvent("grid", "sort");
+        tracker.sendEvent("grid", "close");
+        String json = ui.respond();
+
+        Assert.assertEquals(Arrays.asList(SEND_ACTIONS_JS), ui.getExecutedScripts());
+        Assert.assertFalse(json, json.contains("\n"));
+        Assert.assertTrue(json, json.matches("\\[\\[.*\"open\".*\\],\\[.*\"sort\".*\\],\\[.*\"close\".*\\]\\]"));
+    }
+
+    @Test
+    public void actionsAreSentSeparatelyWithoutBatching() {
+        batchActions = false;
+        createTracker();
+
+        tracker.sendEvent("grid", "open");
+        tracker.sendEvent("grid", "sort");
+        tracker.sendEvent("grid", "close");
+        String json = ui.respond();
+
+        Assert.assertEquals(3, countExecuted(SEND_ACTION_JS));
+        Assert.assertEquals(0, countExecuted(SEND_ACTIONS_JS));
+        Assert.assertTrue(json, json.indexOf("\"open\"") < json.indexOf("\"sort\""));
+        Assert.assertTrue(json, json.indexOf("\"sort\"") < json.indexOf("\"close\""));
+    }
+
+    @Test
+    public void sendEventsIsSentInOneCall() {
+        createTracker();
+
+        List<String> eventNames = Arrays.asList("open", "sort", "close");
+        tracker.sendEvents("grid", eventNames);
+        String json = ui.respond();
+
+        Assert.assertEquals(Arrays.asList(SEND_ACTIONS_JS), ui.getExecutedScripts());
+        for (String eventName : eventNames) {
+            Assert.assertTrue(json, json.contains("\"group_id\":\"grid\",\"event_name\":\"" + eventName + "\""));
+        }
+    }
+
+    @Test
+    public void nothingIsSentWithoutQueuedActions() {
+        createTracker();
+
+        Assert.assertEquals("", ui.respond());
+        Assert.assertEquals(0, countExecuted(SEND_ACTIONS_JS));
+    }
+}
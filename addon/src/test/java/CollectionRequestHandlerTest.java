@@ -0,0 +1,117 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.googleanalytics.tracking.CollectionRequestHandler;
+import org.vaadin.googleanalytics.tracking.CollectionUpstream;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.Transport;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+
+public class CollectionRequestHandlerTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-TEST", sendMode = SendMode.ALWAYS)
+    public static class ProxyLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setTransport(Transport.PROXY).setMeasurementProtocolApiSecret("secret");
+        }
+    }
+
+    private final List<String> forwarded = new ArrayList<>();
+    private CollectionUpstream originalUpstream;
+
+    @Before
+    public void replaceUpstream() {
+        originalUpstream = GoogleAnalyticsTracker.getCollectionUpstream();
+        GoogleAnalyticsTracker.setCollectionUpstream((measurementId, clientId, eventName, params) -> forwarded
+                .add(measurementId + "/" + clientId + "/" + eventName + "/" + params.toJson()));
+    }
+
+    @After
+    public void restoreUpstream() {
+        GoogleAnalyticsTracker.setCollectionUpstream(originalUpstream);
+    }
+
+    private static ServletInputStream stream(String body) {
+        ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        return new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private VaadinResponse post(String body) throws IOException {
+        VaadinRequest request = Mockito.mock(VaadinRequest.class);
+        Mockito.when(request.getPathInfo()).thenReturn("/ga-tracker/collect");
+        Mockito.when(request.getMethod()).thenReturn("POST");
+        Mockito.when(request.getInputStream()).thenReturn(stream(body));
+        VaadinResponse response = Mockito.mock(VaadinResponse.class);
+        Assert.assertTrue(new CollectionRequestHandler().handleRequest(null, request, response));
+        return response;
+    }
+
+    @Test
+    public void eventsInBatchAreForwarded() throws IOException {
+        VaadinResponse response = post("{\"tid\":\"G-TEST\",\"cid\":\"1.2\",\"events\":["
+                + "{\"name\":\"page_view\",\"params\":{\"page_location\":\"orders\"}},{\"name\":\"clicked\"}]}");
+
+        Mockito.verify(response).setStatus(204);
+        Assert.assertEquals(List.of("G-TEST/1.2/page_view/{\"page_location\":\"orders\"}", "G-TEST/1.2/clicked/{}"),
+                forwarded);
+    }
+
+    @Test
+    public void malformedBatchIsRejected() throws IOException {
+        VaadinResponse response = post("[\"event\"]");
+
+        Mockito.verify(response).sendError(Mockito.eq(400), Mockito.anyString());
+        Assert.assertTrue(forwarded.isEmpty());
+    }
+
+    @Test
+    public void endpointIsAddedToSessionOfProxyTracker() {
+        TestUI ui = new TestUI(new ProxyLayout());
+        GoogleAnalyticsTracker.get(ui).sendEvent("grid", "open");
+        ui.respond();
+
+        Mockito.verify(ui.getSession()).addRequestHandler(Mockito.any(CollectionRequestHandler.class));
+    }
+}
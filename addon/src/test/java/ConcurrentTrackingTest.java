@@ -0,0 +1,117 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerMetrics;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.function.DeploymentConfiguration;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.server.VaadinSession;
+
+/**
+ * Sends events from many threads at once, some of them while holding the
+ * session lock, and checks that every event is queued exactly once.
+ */
+public class ConcurrentTrackingTest {
+
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 60;
+    private static final int ROUNDS = 50;
+
+    /**
+     * UI that runs access tasks directly while holding a lock that stands in
+     * for the session lock.
+     */
+    private static class LockingUI extends UI {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final VaadinSession session = Mockito.mock(VaadinSession.class);
+
+        private LockingUI() {
+            Mockito.when(session.hasLock()).then(invocation -> lock.isHeldByCurrentThread());
+            Mockito.when(session.getConfiguration()).thenReturn(Mockito.mock(DeploymentConfiguration.class));
+        }
+
+        @Override
+        public VaadinSession getSession() {
+            return session;
+        }
+
+        @Override
+        public Future<Void> access(Command command) {
+            lock.lock();
+            try {
+                command.execute();
+            } finally {
+                lock.unlock();
+            }
+            return null;
+        }
+    }
+
+    @After
+    public void resetMetrics() {
+        GoogleAnalyticsTracker.setMetrics(TrackerMetrics.NO_OP);
+    }
+
+    @Test
+    public void eventsFromManyThreadsAreQueuedExactlyOnce() throws Exception {
+        Map<String, AtomicInteger> queued = new ConcurrentHashMap<>();
+        GoogleAnalyticsTracker.setMetrics(new TrackerMetrics() {
+            @Override
+            public void eventQueued(String eventName) {
+                queued.computeIfAbsent(eventName, ignore -> new AtomicInteger()).incrementAndGet();
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                queued.clear();
+                LockingUI ui = new LockingUI();
+                GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?>[] producers = new Future<?>[THREADS];
+                for (int t = 0; t < THREADS; t++) {
+                    int thread = t;
+                    producers[t] = executor.submit(() -> {
+                        start.await();
+                        for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                            String eventName = "event_" + thread + "_" + i;
+                            if (i % 10 == 0) {
+                                // Mix in events sent while holding the lock
+                                ui.access(() -> tracker.sendEvent("stress", eventName));
+                            } else {
+                                tracker.sendEvent("stress", eventName);
+                            }
+                        }
+                        return null;
+                    });
+                }
+                start.countDown();
+                for (Future<?> producer : producers) {
+                    producer.get(10, TimeUnit.SECONDS);
+                }
+
+                Assert.assertEquals(THREADS * EVENTS_PER_THREAD, queued.size());
+                for (Map.Entry<String, AtomicInteger> entry : queued.entrySet()) {
+                    Assert.assertEquals(entry.getKey(), 1, entry.getValue().get());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
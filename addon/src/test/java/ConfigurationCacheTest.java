@@ -0,0 +1,89 @@
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+public class ConfigurationCacheTest {
+
+    private static int configured;
+    private static boolean cacheable;
+    private static boolean clearWhileConfiguring;
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class CountingLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configured++;
+            configuration.setCacheable(cacheable);
+            if (clearWhileConfiguring) {
+                // Same as an invalidation from another thread during resolving
+                GoogleAnalyticsTracker.clearConfigurationCache(CountingLayout.class);
+            }
+        }
+    }
+
+    @Before
+    public void reset() {
+        GoogleAnalyticsTracker.clearConfigurationCache();
+        configured = 0;
+        cacheable = true;
+        clearWhileConfiguring = false;
+    }
+
+    private static void initTracker() {
+        TestUI ui = new TestUI(new CountingLayout());
+        GoogleAnalyticsTracker.get(ui).sendEvent("grid", "open");
+        ui.respond();
+    }
+
+    @Test
+    public void configurationIsSharedByUIs() {
+        initTracker();
+        initTracker();
+        Assert.assertEquals(1, configured);
+    }
+
+    @Test
+    public void configurationThatIsNotCacheableIsResolvedForEachUI() {
+        cacheable = false;
+        initTracker();
+        initTracker();
+        Assert.assertEquals(2, configured);
+    }
+
+    @Test
+    public void clearingLayoutClassResolvesAgain() {
+        initTracker();
+        GoogleAnalyticsTracker.clearConfigurationCache(CountingLayout.class);
+        initTracker();
+        initTracker();
+        Assert.assertEquals(2, configured);
+    }
+
+    @Test
+    public void clearingAllResolvesAgain() {
+        initTracker();
+        GoogleAnalyticsTracker.clearConfigurationCache();
+        initTracker();
+        Assert.assertEquals(2, configured);
+    }
+
+    @Test
+    public void configurationInvalidatedWhileResolvingIsNotCached() {
+        clearWhileConfiguring = true;
+        initTracker();
+        clearWhileConfiguring = false;
+        initTracker();
+        initTracker();
+        Assert.assertEquals(2, configured);
+    }
+}
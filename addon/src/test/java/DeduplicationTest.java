@@ -0,0 +1,165 @@
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.DeduplicationMode;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+public class DeduplicationTest {
+
+    private static DeduplicationMode mode;
+    private static Duration interval;
+    private static String[] parameters;
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class Layout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setDeduplicationInterval(interval).setDeduplicationMode(mode)
+                    .setDeduplicationParameters(parameters).setCacheable(false);
+        }
+    }
+
+    private TestUI ui;
+    private GoogleAnalyticsTracker tracker;
+
+    @Before
+    public void reset() {
+        mode = DeduplicationMode.LAST;
+        interval = Duration.ofMinutes(1);
+        parameters = new String[0];
+    }
+
+    /**
+     * Creates a tracker with the current settings. The tracker is initialized
+     * so that events are deduplicated from the start.
+     */
+    private void createTracker() {
+        ui = new TestUI(new Layout());
+        tracker = GoogleAnalyticsTracker.get(ui);
+        tracker.sendEvent("page", "init");
+        ui.respond();
+    }
+
+    private void select(String item) {
+        tracker.ga("event", Map.<String, Serializable> of("item", item), "select");
+    }
+
+    private static int count(String json, String item) {
+        String event = "[\"event\",\"select\",{\"item\":\"" + item + "\"}]";
+        return json.split(Pattern.quote(event), -1).length - 1;
+    }
+
+    @Test
+    public void firstKeepsEarliestOccurrence() {
+        mode = DeduplicationMode.FIRST;
+        createTracker();
+
+        select("a");
+        select("b");
+        String json = ui.respond();
+        Assert.assertEquals(json, 1, count(json, "a"));
+        Assert.assertEquals(json, 0, count(json, "b"));
+
+        // Still within the interval after the first occurrence has been sent
+        select("c");
+        Assert.assertEquals("", ui.respond());
+        Assert.assertEquals(2, tracker.getSuppressedEventCount());
+    }
+
+    @Test
+    public void lastReplacesPendingOccurrence() {
+        createTracker();
+
+        select("a");
+        select("b");
+        String json = ui.respond();
+        Assert.assertEquals(json, 0, count(json, "a"));
+        Assert.assertEquals(json, 1, count(json, "b"));
+
+        // The earlier occurrence has been sent, so there is nothing to replace
+        select("c");
+        json = ui.respond();
+        Assert.assertEquals(json, 1, count(json, "c"));
+        Assert.assertEquals(1, tracker.getSuppressedEventCount());
+    }
+
+    @Test
+    public void parametersDistinguishDuplicates() {
+        mode = DeduplicationMode.FIRST;
+        parameters = new String[] { "item" };
+        createTracker();
+
+        select("a");
+        select("b");
+        select("a");
+        String json = ui.respond();
+        Assert.assertEquals(json, 1, count(json, "a"));
+        Assert.assertEquals(json, 1, count(json, "b"));
+        Assert.assertEquals(1, tracker.getSuppressedEventCount());
+    }
+
+    @Test
+    public void duplicateAfterIntervalIsSent() throws InterruptedException {
+        mode = DeduplicationMode.FIRST;
+        interval = Duration.ofMillis(50);
+        createTracker();
+
+        select("a");
+        Thread.sleep(100);
+        select("b");
+        String json = ui.respond();
+        Assert.assertEquals(json, 1, count(json, "a"));
+        Assert.assertEquals(json, 1, count(json, "b"));
+        Assert.assertEquals(0, tracker.getSuppressedEventCount());
+    }
+
+    @Test
+    public void oldestEventIsForgottenWhenWindowIsFull() {
+        mode = DeduplicationMode.FIRST;
+        createTracker();
+
+        // One more distinct event than the window holds
+        for (int i = 0; i <= 8; i++) {
+            tracker.sendEvent("grid", "event_" + i);
+        }
+        tracker.sendEvent("grid", "event_0");
+        tracker.sendEvent("grid", "event_8");
+        String json = ui.respond();
+        Assert.assertEquals(json, 2, json.split("\"event\",\"event_0\"", -1).length - 1);
+        Assert.assertEquals(json, 1, json.split("\"event\",\"event_8\"", -1).length - 1);
+        Assert.assertEquals(1, tracker.getSuppressedEventCount());
+    }
+
+    @Test
+    public void suppressedEventsAreCountedPerTrackerAndInTotal() {
+        long total = GoogleAnalyticsTracker.getTotalSuppressedEventCount();
+
+        createTracker();
+        GoogleAnalyticsTracker first = tracker;
+        select("a");
+        select("a");
+        select("a");
+
+        createTracker();
+        select("a");
+        select("a");
+
+        Assert.assertEquals(2, first.getSuppressedEventCount());
+        Assert.assertEquals(1, tracker.getSuppressedEventCount());
+        Assert.assertEquals(total + 3, GoogleAnalyticsTracker.getTotalSuppressedEventCount());
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.Serializable;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+public class DefaultParametersTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class Layout extends Component implements RouterLayout {
+    }
+
+    @Test
+    public void defaultsAreOnlySentWhenChanged() {
+        TestUI ui = new TestUI(new Layout());
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+
+        tracker.sendEvent("grid", "open");
+        String json = ui.respond();
+        Assert.assertTrue(json, json.contains("[\"set\",{\"vaadin_ui\":" + ui.getUIId() + "}]"));
+        Assert.assertTrue(json, json.contains("[\"event\",\"open\",{\"group_id\":\"grid\",\"event_name\":\"open\"}]"));
+
+        tracker.setDefaultParameter("tenant", "acme");
+        tracker.setUserProperty("plan", "pro");
+        tracker.setUserProperty("seats", Integer.valueOf(5));
+        json = ui.respond();
+        Assert.assertTrue(json, json.contains("[\"set\",{\"tenant\":\"acme\"}]"));
+        Assert.assertTrue(json, json.contains("[\"set\",\"user_properties\",{\"plan\":\"pro\",\"seats\":5}]"));
+
+        tracker.setDefaultParameter("tenant", "acme");
+        tracker.setUserProperty("plan", "pro");
+        Assert.assertEquals("", ui.respond());
+
+        tracker.setDefaultParameter("tenant", null);
+        json = ui.respond();
+        Assert.assertTrue(json, json.contains("[\"set\",{\"tenant\":null}]"));
+    }
+
+    @Test
+    public void callerMapIsNotModified() {
+        TestUI ui = new TestUI(new Layout());
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+
+        // Immutable, so any modification would throw
+        Map<String, Serializable> fields = Map.of("page_title", "Orders");
+        tracker.ga("event", fields, "select_content");
+        tracker.sendPageView("orders", fields);
+        String json = ui.respond();
+        Assert.assertTrue(json, json.contains("[\"event\",\"page_view\",{\"page_title\":\"Orders\",\"page_location\":\"orders\"}]"));
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.InitListener;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.UIInitListener;
+import com.vaadin.flow.server.VaadinService;
+
+public class DisabledTrackingTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.NEVER)
+    public static class NeverLayout extends Component implements RouterLayout {
+    }
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class AlwaysLayout extends Component implements RouterLayout {
+    }
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class CountingLayout extends Component implements RouterLayout, TrackerConfigurator {
+        private int configured;
+
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configured++;
+            configuration.setCacheable(false);
+        }
+    }
+
+    private TestUI createUI(RouterLayout layout, boolean disabledProperty) {
+        TestUI ui = new TestUI(layout);
+        Mockito.when(ui.getDeploymentConfiguration().getBooleanProperty(GoogleAnalyticsTracker.DISABLED_PROPERTY,
+                false)).thenReturn(disabledProperty);
+        return ui;
+    }
+
+    @Test
+    public void neverSendModeUsesSharedDisabledTracker() {
+        TestUI ui = createUI(new NeverLayout(), false);
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+
+        Assert.assertTrue(tracker.isDisabled());
+        Assert.assertSame(tracker, GoogleAnalyticsTracker.get(createUI(new NeverLayout(), false)));
+
+        tracker.sendPageView("grid");
+        tracker.sendEvent("grid", "open");
+        tracker.setDefaultParameter("tenant", "acme");
+        Assert.assertEquals("", ui.respond());
+        Assert.assertEquals(Collections.emptyList(), ui.getLoadedScripts());
+    }
+
+    @Test
+    public void disabledPropertyOverridesSendMode() {
+        TestUI ui = createUI(new AlwaysLayout(), true);
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+        Assert.assertTrue(tracker.isDisabled());
+
+        tracker.sendEvent("grid", "open");
+        Assert.assertEquals("", ui.respond());
+        Assert.assertEquals(Collections.emptyList(), ui.getLoadedScripts());
+
+        Assert.assertFalse(GoogleAnalyticsTracker.get(createUI(new AlwaysLayout(), false)).isDisabled());
+    }
+
+    @Test
+    public void configurationCheckedOnCreationIsReused() {
+        CountingLayout layout = new CountingLayout();
+        TestUI ui = createUI(layout, false);
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+        Assert.assertFalse(tracker.isDisabled());
+
+        tracker.sendEvent("grid", "open");
+        Assert.assertTrue(ui.respond().contains("\"open\""));
+        Assert.assertEquals(1, layout.configured);
+    }
+
+    @Test
+    public void nothingIsRegisteredWhenDisabled() {
+        VaadinService service = Mockito.mock(VaadinService.class, Mockito.RETURNS_DEEP_STUBS);
+        Mockito.when(service.getDeploymentConfiguration().getBooleanProperty(GoogleAnalyticsTracker.DISABLED_PROPERTY,
+                false)).thenReturn(true);
+        ServiceInitEvent event = new ServiceInitEvent(service);
+        new InitListener().serviceInit(event);
+
+        Mockito.verify(service, Mockito.never()).addUIInitListener(Mockito.any(UIInitListener.class));
+        Assert.assertEquals(0, event.getAddedRequestHandlers().count());
+    }
+}
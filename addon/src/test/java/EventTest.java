@@ -0,0 +1,31 @@
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vaadin.googleanalytics.tracking.event.Item;
+import org.vaadin.googleanalytics.tracking.event.PurchaseEvent;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+public class EventTest {
+
+    @Test
+    public void purchaseIsEncodedWithItems() {
+        PurchaseEvent event = new PurchaseEvent("T-1", "EUR", 25, List.of(new Item("SKU-1", 12.5, 2)));
+
+        JsonObject parameters = Json.createObject();
+        event.encode(parameters);
+
+        Assert.assertEquals("purchase", event.eventName());
+        Assert.assertEquals(
+                "{\"transaction_id\":\"T-1\",\"currency\":\"EUR\",\"value\":25,"
+                        + "\"items\":[{\"item_id\":\"SKU-1\",\"price\":12.5,\"quantity\":2}]}",
+                parameters.toJson());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itemRequiresIdOrName() {
+        new Item(null, null, "Shoes", null, null);
+    }
+}
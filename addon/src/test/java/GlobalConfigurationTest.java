@@ -0,0 +1,199 @@
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GlobalTrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.MeasurementProtocolDispatcher;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.DeduplicationMode;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.Transport;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.sun.net.httpserver.HttpServer;
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+public class GlobalConfigurationTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class Layout extends Component implements RouterLayout {
+    }
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class MeasurementProtocolLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setTransport(Transport.MEASUREMENT_PROTOCOL).setMeasurementProtocolApiSecret("secret")
+                    .setMeasurementProtocolUrl(endpoint).setCacheable(false);
+        }
+    }
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class DeduplicatingLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setDeduplicationInterval(Duration.ofMinutes(1)).setDeduplicationMode(DeduplicationMode.LAST);
+        }
+    }
+
+    private static String endpoint;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void reset() {
+        GlobalTrackerConfiguration.reset();
+    }
+
+    @Test
+    public void switchingOffAppliesToExistingTrackers() {
+        TestUI ui = new TestUI(new Layout());
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+        tracker.sendEvent("grid", "open");
+        Assert.assertTrue(ui.respond().contains("\"open\""));
+
+        // Queued before switching off, discarded with the next flush
+        tracker.sendEvent("grid", "queued");
+        GlobalTrackerConfiguration.setEnabled(false);
+        tracker.sendEvent("grid", "discarded");
+        tracker.setDefaultParameter("tenant", "acme");
+        Assert.assertEquals("", ui.respond());
+
+        GlobalTrackerConfiguration.setEnabled(true);
+        tracker.sendEvent("grid", "close");
+        String json = ui.respond();
+        Assert.assertFalse(json, json.contains("queued") || json.contains("discarded"));
+        Assert.assertTrue(json, json.contains("[\"set\",{\"vaadin_ui\":" + ui.getUIId() + ",\"tenant\":\"acme\"}]"));
+        Assert.assertTrue(json, json.contains("\"close\""));
+    }
+
+    @Test
+    public void duplicateAfterSwitchingBackOnIsQueued() {
+        TestUI ui = new TestUI(new DeduplicatingLayout());
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+        tracker.sendEvent("grid", "init");
+        ui.respond();
+
+        // Discarded with the queue, so it is no longer pending
+        tracker.sendEvent("grid", "open");
+        GlobalTrackerConfiguration.setEnabled(false);
+        tracker.sendEvent("grid", "close");
+        Assert.assertEquals("", ui.respond());
+
+        GlobalTrackerConfiguration.setEnabled(true);
+        tracker.sendEvent("grid", "sort");
+        tracker.sendEvent("grid", "open");
+        String json = ui.respond();
+        Assert.assertTrue(json, json.contains("\"sort\""));
+        Assert.assertTrue(json, json.contains("\"open\""));
+    }
+
+    @Test
+    public void trackingIdIsReplacedForNewTrackers() {
+        GlobalTrackerConfiguration.setTrackingId("G-MAIN", "G-STAGING");
+
+        TestUI ui = new TestUI(new Layout());
+        GoogleAnalyticsTracker.get(ui).sendEvent("grid", "open");
+        String json = ui.respond();
+        Assert.assertTrue(json, json.contains("[\"config\",\"G-STAGING\""));
+        Assert.assertFalse(json, json.contains("G-MAIN"));
+    }
+
+    @Test
+    public void trackingIdIsReplacedForInitializedMeasurementProtocolTrackers() throws Exception {
+        List<String> queries = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/mp/collect", exchange -> {
+            queries.add(exchange.getRequestURI().getQuery());
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        endpoint = "http://localhost:" + server.getAddress().getPort() + "/mp/collect";
+        try {
+            TestUI ui = new TestUI(new MeasurementProtocolLayout());
+            GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+            tracker.sendEvent("grid", "open");
+            ui.respond();
+            awaitRequests(queries, 1);
+
+            GlobalTrackerConfiguration.setTrackingId("G-MAIN", "G-STAGING");
+            tracker.sendEvent("grid", "close");
+            ui.respond();
+            awaitRequests(queries, 2);
+
+            Assert.assertEquals("measurement_id=G-MAIN&api_secret=secret", queries.get(0));
+            Assert.assertEquals("measurement_id=G-STAGING&api_secret=secret", queries.get(1));
+        } finally {
+            MeasurementProtocolDispatcher.shutdownAll();
+            server.stop(0);
+        }
+    }
+
+    private static void awaitRequests(List<String> queries, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queries.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, queries.size());
+    }
+
+    @Test
+    public void loadReplacesAllSettings() {
+        GlobalTrackerConfiguration.setTrackingId("G-MAIN", "G-STAGING");
+
+        Properties properties = new Properties();
+        properties.setProperty("enabled", "false");
+        properties.setProperty("sampleRate", "0.5");
+        properties.setProperty("sampleRate.scroll", "0.1");
+        GlobalTrackerConfiguration.load(properties);
+
+        Assert.assertFalse(GlobalTrackerConfiguration.isEnabled());
+        Assert.assertEquals(Double.valueOf(0.5), GlobalTrackerConfiguration.getSampleRate());
+        Assert.assertEquals(Collections.singletonMap("scroll", 0.1), GlobalTrackerConfiguration.getEventSampleRates());
+        Assert.assertEquals(Collections.emptyMap(), GlobalTrackerConfiguration.getTrackingIds());
+
+        properties.setProperty("sampleRate", "2");
+        Assert.assertThrows(IllegalArgumentException.class, () -> GlobalTrackerConfiguration.load(properties));
+        Assert.assertEquals(Double.valueOf(0.5), GlobalTrackerConfiguration.getSampleRate());
+    }
+
+    @Test
+    public void watchedFileIsReloaded() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("tracking.properties");
+        Files.write(file, "enabled=false\n".getBytes(StandardCharsets.UTF_8));
+
+        try (Closeable watch = GlobalTrackerConfiguration.watch(file)) {
+            Assert.assertFalse(GlobalTrackerConfiguration.isEnabled());
+
+            Files.write(file, "enabled=true\nsampleRate=0.25\n".getBytes(StandardCharsets.UTF_8));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (GlobalTrackerConfiguration.getSampleRate() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(GlobalTrackerConfiguration.isEnabled());
+            Assert.assertEquals(Double.valueOf(0.25), GlobalTrackerConfiguration.getSampleRate());
+        }
+    }
+}
@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GlobalTrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.InitListener;
+import org.vaadin.googleanalytics.tracking.MeasurementProtocolDispatcher;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.Transport;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.sun.net.httpserver.HttpServer;
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.server.ServiceDestroyEvent;
+import com.vaadin.flow.server.ServiceDestroyListener;
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.VaadinService;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+
+public class MeasurementProtocolDispatcherTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-OWNED", sendMode = SendMode.ALWAYS)
+    public static class OwnedLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setTransport(Transport.MEASUREMENT_PROTOCOL).setMeasurementProtocolApiSecret("secret")
+                    .setMeasurementProtocolUrl(ownedEndpoint).setCacheable(false);
+        }
+    }
+
+    private static String ownedEndpoint;
+
+    private HttpServer server;
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private final List<JsonObject> bodies = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    @Before
+    public void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/mp/collect", exchange -> {
+            boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            try (InputStream in = gzip ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+                String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                int status;
+                if (failuresLeft.getAndDecrement() > 0) {
+                    status = 500;
+                } else {
+                    queries.add(exchange.getRequestURI().getQuery());
+                    bodies.add(Json.parse(body));
+                    status = 204;
+                }
+                exchange.sendResponseHeaders(status, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopStub() {
+        MeasurementProtocolDispatcher.shutdownAll();
+        GlobalTrackerConfiguration.reset();
+        server.stop(0);
+    }
+
+    private String endpoint() {
+        return "http://localhost:" + server.getAddress().getPort() + "/mp/collect";
+    }
+
+    private List<JsonObject> awaitEvents(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (countEvents() < count && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(count, countEvents());
+        return bodies;
+    }
+
+    private int countEvents() {
+        return bodies.stream().mapToInt(body -> body.getArray("events").length()).sum();
+    }
+
+    @Test
+    public void eventsAreBatchedPerRequestLimit() throws InterruptedException {
+        MeasurementProtocolDispatcher dispatcher = MeasurementProtocolDispatcher.get(endpoint(), "G-TEST", "secret");
+        for (int i = 0; i < 60; i++) {
+            Assert.assertTrue(dispatcher.send("client.1", "event_" + i, null));
+        }
+
+        Set<String> eventIds = new HashSet<>();
+        for (JsonObject body : awaitEvents(60)) {
+            Assert.assertEquals("client.1", body.getString("client_id"));
+            JsonArray events = body.getArray("events");
+            Assert.assertTrue(events.length() <= MeasurementProtocolDispatcher.MAX_EVENTS_PER_REQUEST);
+            for (int i = 0; i < events.length(); i++) {
+                eventIds.add(events.getObject(i).getObject("params").getString("event_id"));
+            }
+        }
+        Assert.assertEquals(60, eventIds.size());
+        Assert.assertEquals("measurement_id=G-TEST&api_secret=secret", queries.get(0));
+    }
+
+    @Test
+    public void compressedRequestsCanBeDecoded() throws InterruptedException {
+        MeasurementProtocolDispatcher dispatcher = MeasurementProtocolDispatcher.get(endpoint(), "G-TEST", "secret",
+                true);
+        dispatcher.send("client.1", "compressed", null);
+
+        JsonObject event = awaitEvents(1).get(0).getArray("events").getObject(0);
+        Assert.assertEquals("compressed", event.getString("name"));
+    }
+
+    @Test
+    public void failedRequestIsRetriedWithSameEventId() throws InterruptedException {
+        failuresLeft.set(1);
+        MeasurementProtocolDispatcher dispatcher = MeasurementProtocolDispatcher.get(endpoint(), "G-TEST", "secret");
+        dispatcher.send("client.1", "retried", null);
+
+        List<JsonObject> received = awaitEvents(1);
+        JsonObject event = received.get(0).getArray("events").getObject(0);
+        Assert.assertEquals("retried", event.getString("name"));
+        Assert.assertTrue(event.getObject("params").hasKey("event_id"));
+        Assert.assertEquals(0, dispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    public void nestedParametersAreEncoded() throws InterruptedException {
+        MeasurementProtocolDispatcher dispatcher = MeasurementProtocolDispatcher.get(endpoint(), "G-TEST", "secret");
+        Map<String, Serializable> item = new LinkedHashMap<>();
+        item.put("item_name", "12\" \"Pizza\"\n");
+        item.put("price", Double.valueOf(9.5));
+        ArrayList<Map<String, Serializable>> items = new ArrayList<>();
+        items.add(item);
+        Map<String, Serializable> params = new LinkedHashMap<>();
+        params.put("value", Integer.valueOf(19));
+        params.put("items", items);
+        dispatcher.send("client.1", "purchase", params);
+
+        JsonObject received = awaitEvents(1).get(0).getArray("events").getObject(0).getObject("params");
+        Assert.assertEquals(19, received.getNumber("value"), 0);
+        JsonObject receivedItem = received.getArray("items").getObject(0);
+        Assert.assertEquals("12\" \"Pizza\"\n", receivedItem.getString("item_name"));
+        Assert.assertEquals(9.5, receivedItem.getNumber("price"), 0);
+    }
+
+    private static void sendFromTracker(TestUI ui, String eventName) {
+        GoogleAnalyticsTracker.get(ui).sendEvent("grid", eventName);
+        ui.respond();
+    }
+
+    private static boolean isWorkerAlive(String measurementId) {
+        String name = "ga-measurement-protocol-" + measurementId;
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().equals(name) && thread.isAlive());
+    }
+
+    private static void awaitWorkerStopped(String measurementId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (isWorkerAlive(measurementId) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertFalse(isWorkerAlive(measurementId));
+    }
+
+    private static void destroyService(VaadinService service) {
+        new InitListener().serviceInit(new ServiceInitEvent(service));
+        ArgumentCaptor<ServiceDestroyListener> listener = ArgumentCaptor.forClass(ServiceDestroyListener.class);
+        Mockito.verify(service).addServiceDestroyListener(listener.capture());
+        listener.getValue().serviceDestroy(new ServiceDestroyEvent(service));
+    }
+
+    @Test
+    public void trackerDispatchersAreStoppedWhenNoLongerUsed() throws InterruptedException {
+        ownedEndpoint = endpoint();
+        TestUI first = new TestUI(new OwnedLayout());
+        TestUI second = new TestUI(new OwnedLayout());
+        sendFromTracker(first, "open");
+        sendFromTracker(second, "open");
+        awaitEvents(2);
+
+        // Replaced for the first service, still used by the second one
+        GlobalTrackerConfiguration.setTrackingId("G-OWNED", "G-REPLACED");
+        sendFromTracker(first, "sort");
+        awaitEvents(3);
+        Assert.assertTrue(isWorkerAlive("G-OWNED"));
+
+        sendFromTracker(second, "sort");
+        awaitEvents(4);
+        awaitWorkerStopped("G-OWNED");
+
+        // Destroying one service doesn't stop dispatchers of other services
+        destroyService(first.getService());
+        Assert.assertTrue(isWorkerAlive("G-REPLACED"));
+        destroyService(second.getService());
+        awaitWorkerStopped("G-REPLACED");
+    }
+
+    @Test
+    public void sharedDispatcherIsNotStoppedWithService() throws InterruptedException {
+        ownedEndpoint = endpoint();
+        MeasurementProtocolDispatcher shared = MeasurementProtocolDispatcher.get(endpoint(), "G-OWNED", "secret");
+        TestUI ui = new TestUI(new OwnedLayout());
+        sendFromTracker(ui, "open");
+        awaitEvents(1);
+
+        destroyService(ui.getService());
+        Assert.assertTrue(shared.isRunning());
+        Assert.assertTrue(shared.send("client.1", "after_destroy", null));
+        awaitEvents(2);
+    }
+}
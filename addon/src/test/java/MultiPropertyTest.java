@@ -0,0 +1,42 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+public class MultiPropertyTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class Layout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.addMeasurementId("G-ALL").addMeasurementId("G-PURCHASES")
+                    .setMeasurementIdEventNames("G-PURCHASES", "purchase");
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void settingsRequireAddedId() {
+        TrackerConfiguration.create(EnableGoogleAnalytics.LogLevel.NONE, true).setMeasurementIdSampleRate("G-OTHER", 0.5);
+    }
+
+    @Test
+    public void filteredEventIsRoutedWithSendTo() {
+        TestUI ui = new TestUI(new Layout());
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+        tracker.sendEvent("orders", "open_order");
+        tracker.sendEvent("orders", "purchase");
+        String json = ui.respond();
+        Assert.assertTrue(json, json.contains("[\"config\",\"G-PURCHASES\"]"));
+        Assert.assertTrue(json, json.contains("\"send_to\":[\"G-MAIN\",\"G-ALL\"]"));
+        // The purchase is sent to every property, so it needs no routing
+        Assert.assertEquals(json, json.indexOf("send_to"), json.lastIndexOf("send_to"));
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.InitListener;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.AfterNavigationEvent;
+import com.vaadin.flow.router.BeforeEvent;
+import com.vaadin.flow.router.HasUrlParameter;
+import com.vaadin.flow.router.Location;
+import com.vaadin.flow.router.LocationChangeEvent;
+import com.vaadin.flow.router.NavigationTrigger;
+import com.vaadin.flow.router.Route;
+import com.vaadin.flow.router.Router;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.router.internal.AfterNavigationHandler;
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.UIInitEvent;
+import com.vaadin.flow.server.UIInitListener;
+import com.vaadin.flow.server.VaadinService;
+
+public class PagePathTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS, pageviewPrefix = "shop/")
+    public static class Layout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setRouteTemplatePageViews(true).setDeniedQueryParameters("token");
+        }
+    }
+
+    @Tag("div")
+    @Route(value = "orders/:orderId(\\d+)/:tab?", layout = Layout.class)
+    public static class OrderView extends Component {
+    }
+
+    @Tag("div")
+    @Route(value = "customers", layout = Layout.class)
+    public static class CustomerView extends Component implements HasUrlParameter<Long> {
+        @Override
+        public void setParameter(BeforeEvent event, Long parameter) {
+        }
+    }
+
+    private void navigate(TestUI ui, Location location) {
+        // Register the navigation listener in the same way as for a real UI
+        VaadinService service = Mockito.mock(VaadinService.class, Mockito.RETURNS_DEEP_STUBS);
+        new InitListener().serviceInit(new ServiceInitEvent(service));
+        ArgumentCaptor<UIInitListener> uiInitListener = ArgumentCaptor.forClass(UIInitListener.class);
+        Mockito.verify(service).addUIInitListener(uiInitListener.capture());
+        uiInitListener.getValue().uiInit(new UIInitEvent(ui, service));
+
+        AfterNavigationEvent event = new AfterNavigationEvent(new LocationChangeEvent(Mockito.mock(Router.class), ui,
+                NavigationTrigger.ROUTER_LINK, location, ui.getInternals().getActiveRouterTargetsChain()));
+        for (AfterNavigationHandler handler : ui.getInternals().getListeners(AfterNavigationHandler.class)) {
+            handler.afterNavigation(event);
+        }
+    }
+
+    @Test
+    public void navigationIsReportedWithRouteTemplate() {
+        Location location = new Location("orders/123/items?sort=date&token=secret");
+        TestUI ui = new TestUI(location, new OrderView(), new Layout());
+        navigate(ui, location);
+
+        String json = ui.respond();
+        Assert.assertTrue(json,
+                json.contains("[\"event\",\"page_view\",{\"page_location\":\"shop/orders/:orderId/:tab?sort=date\"}]"));
+    }
+
+    @Test
+    public void sentPageViewIsFilteredAndPrefixed() {
+        TestUI ui = new TestUI(new Location("orders/1"), new OrderView(), new Layout());
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+
+        tracker.sendPageView("orders/5?token=secret");
+        String json = ui.respond();
+        Assert.assertTrue(json, json.contains("[\"event\",\"page_view\",{\"page_location\":\"shop/orders/5\"}]"));
+    }
+
+    @Test
+    public void urlParameterIsReplacedWithPlaceholder() {
+        Location location = new Location("customers/42?token=secret");
+        TestUI ui = new TestUI(location, new CustomerView(), new Layout());
+        navigate(ui, location);
+
+        String json = ui.respond();
+        Assert.assertTrue(json,
+                json.contains("[\"event\",\"page_view\",{\"page_location\":\"shop/customers/:parameter\"}]"));
+    }
+
+    @Test
+    public void pageViewSentBeforeRoutingIsNormalizedWhenFlushed() {
+        TestUI ui = new TestUI();
+        GoogleAnalyticsTracker.get(ui).sendPageView("orders/5?token=secret");
+
+        ui.getInternals().showRouteTarget(new Location("orders/5"), new OrderView(),
+                Collections.singletonList(new Layout()));
+        String json = ui.respond();
+        Assert.assertTrue(json, json.contains("[\"event\",\"page_view\",{\"page_location\":\"shop/orders/5\"}]"));
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.Serializable;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.OverflowPolicy;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+import org.vaadin.googleanalytics.tracking.TrackerMetrics;
+import org.vaadin.googleanalytics.tracking.TrackerMetrics.DropReason;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.router.RouterLayout;
+
+public class PendingQueueTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics("G-MAIN")
+    public static class FailingLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            throw new IllegalStateException("Configuration service unavailable");
+        }
+    }
+
+    private static OverflowPolicy overflowPolicy;
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class SmallQueueLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setMaxPendingActions(3).setOverflowPolicy(overflowPolicy).setCacheable(false);
+        }
+    }
+
+    private final TrackerMetrics metrics = Mockito.mock(TrackerMetrics.class);
+
+    @After
+    public void resetMetrics() {
+        GoogleAnalyticsTracker.setMetrics(TrackerMetrics.NO_OP);
+    }
+
+    @Test
+    public void oldestEventIsDroppedWhenFull() {
+        GoogleAnalyticsTracker.setMetrics(metrics);
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(new UI());
+
+        for (int i = 0; i <= TrackerConfiguration.DEFAULT_MAX_PENDING_ACTIONS; i++) {
+            tracker.sendEvent("group", "event_" + i);
+        }
+
+        Mockito.verify(metrics).eventDropped("event_0", DropReason.OVERFLOW);
+        Mockito.verify(metrics, Mockito.never()).eventDropped("event_1", DropReason.OVERFLOW);
+    }
+
+    @Test
+    public void failOpenDiscardsQueueWhenInitFails() {
+        TestUI ui = new TestUI();
+        Mockito.when(ui.getDeploymentConfiguration().getBooleanProperty(GoogleAnalyticsTracker.FAIL_OPEN_PROPERTY,
+                false)).thenReturn(true);
+
+        GoogleAnalyticsTracker.setMetrics(metrics);
+        GoogleAnalyticsTracker.get(ui).sendEvent("group", "clicked");
+
+        // No route target, so the tracker cannot be initialized
+        ui.respond();
+
+        Mockito.verify(metrics).initFailed(Mockito.any(IllegalStateException.class));
+        Mockito.verify(metrics).eventDropped("clicked", DropReason.INIT_FAILED);
+    }
+
+    @Test
+    public void failOpenAppliesToConfiguratorFailureInGet() {
+        TestUI ui = new TestUI(new FailingLayout());
+        Mockito.when(ui.getDeploymentConfiguration().getBooleanProperty(GoogleAnalyticsTracker.FAIL_OPEN_PROPERTY,
+                false)).thenReturn(true);
+
+        GoogleAnalyticsTracker.setMetrics(metrics);
+        GoogleAnalyticsTracker.get(ui).sendEvent("group", "clicked");
+        Assert.assertEquals("", ui.respond());
+
+        Mockito.verify(metrics).initFailed(Mockito.any(IllegalStateException.class));
+        Mockito.verify(metrics).eventDropped("clicked", DropReason.INIT_FAILED);
+    }
+
+    @Test
+    public void configuratorFailureInGetIsThrownWithoutFailOpen() {
+        TestUI ui = new TestUI(new FailingLayout());
+        Assert.assertThrows(IllegalStateException.class, () -> GoogleAnalyticsTracker.get(ui));
+    }
+
+    /**
+     * Sends <code>scroll</code>, <code>click</code> and <code>search</code>
+     * to fill a queue of three, followed by a second <code>scroll</code>.
+     */
+    private String overflow(OverflowPolicy policy) {
+        overflowPolicy = policy;
+        TestUI ui = new TestUI(new SmallQueueLayout());
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+        tracker.sendEvent("page", "init");
+        ui.respond();
+
+        GoogleAnalyticsTracker.setMetrics(metrics);
+        tracker.ga("event", Map.<String, Serializable> of("percent_scrolled", 10), "scroll");
+        tracker.sendEvent("grid", "click");
+        tracker.sendEvent("grid", "search");
+        tracker.ga("event", Map.<String, Serializable> of("percent_scrolled", 90), "scroll");
+        return ui.respond();
+    }
+
+    @Test
+    public void customLimitDropsOldest() {
+        String json = overflow(OverflowPolicy.DROP_OLDEST);
+        Assert.assertFalse(json, json.contains("10"));
+        Assert.assertTrue(json, json.contains("\"click\"") && json.contains("\"search\"") && json.contains("90"));
+        Mockito.verify(metrics).eventDropped("scroll", DropReason.OVERFLOW);
+    }
+
+    @Test
+    public void dropNewestKeepsQueuedEvents() {
+        String json = overflow(OverflowPolicy.DROP_NEWEST);
+        Assert.assertFalse(json, json.contains("90"));
+        Assert.assertTrue(json, json.contains("10") && json.contains("\"click\"") && json.contains("\"search\""));
+        Mockito.verify(metrics).eventDropped("scroll", DropReason.OVERFLOW);
+    }
+
+    @Test
+    public void coalesceReplacesQueuedEventWithSameName() {
+        String json = overflow(OverflowPolicy.COALESCE);
+        // Sent as one batch, with the replacement in place of the first scroll
+        Assert.assertEquals("[[\"event\",\"scroll\",{\"percent_scrolled\":90}],"
+                + "[\"event\",\"click\",{\"group_id\":\"grid\",\"event_name\":\"click\"}],"
+                + "[\"event\",\"search\",{\"group_id\":\"grid\",\"event_name\":\"search\"}]]", json);
+        Mockito.verify(metrics).eventDropped("scroll", DropReason.OVERFLOW);
+        Mockito.verify(metrics, Mockito.never()).eventDropped("click", DropReason.OVERFLOW);
+    }
+
+    @Test
+    public void coalesceDropsEventWithoutQueuedNamesake() {
+        overflowPolicy = OverflowPolicy.COALESCE;
+        TestUI ui = new TestUI(new SmallQueueLayout());
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+        tracker.sendEvent("page", "init");
+        ui.respond();
+
+        GoogleAnalyticsTracker.setMetrics(metrics);
+        tracker.sendEvent("grid", "click");
+        tracker.sendEvent("grid", "search");
+        tracker.sendEvent("grid", "sort");
+        tracker.sendEvent("grid", "filter");
+        String json = ui.respond();
+        Assert.assertFalse(json, json.contains("filter"));
+        Assert.assertTrue(json, json.contains("\"click\"") && json.contains("\"search\"") && json.contains("\"sort\""));
+        Mockito.verify(metrics).eventDropped("filter", DropReason.OVERFLOW);
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GlobalTrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TestLoad;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+public class SamplingTest {
+
+    private static double sampleRate;
+    private static Map<String, Double> eventSampleRates;
+    private static int maxEventsPerSecond;
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class Layout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setSampleRate(sampleRate).setMaxEventsPerSecond(maxEventsPerSecond).setCacheable(false);
+            eventSampleRates.forEach(configuration::setEventSampleRate);
+        }
+    }
+
+    private TestUI ui;
+    private GoogleAnalyticsTracker tracker;
+
+    @Before
+    public void reset() {
+        sampleRate = 1;
+        eventSampleRates = new HashMap<>();
+        maxEventsPerSecond = 0;
+    }
+
+    @After
+    public void resetGlobal() {
+        GlobalTrackerConfiguration.reset();
+        TestLoad.setEventsPerSecond(0);
+    }
+
+    /**
+     * Creates and initializes a tracker with the current settings. Events are
+     * sampled only once the tracker knows its configuration.
+     *
+     * @return the JSON sent in the first response
+     */
+    private String createTracker() {
+        ui = new TestUI(new Layout());
+        tracker = GoogleAnalyticsTracker.get(ui);
+        tracker.sendEvent("page", "init");
+        return ui.respond();
+    }
+
+    private static boolean isSent(String json, String eventName) {
+        return json.contains("\"event\",\"" + eventName + "\"");
+    }
+
+    @Test
+    public void sampledOutEventsAreDropped() {
+        sampleRate = 0;
+        String json = createTracker();
+        Assert.assertFalse(json, isSent(json, "init"));
+
+        tracker.sendEvent("grid", "open");
+        json = ui.respond();
+        Assert.assertFalse(json, isSent(json, "open"));
+    }
+
+    @Test
+    public void sessionStaysInSameBucket() {
+        sampleRate = 0.5;
+        String json = createTracker();
+        boolean sampledIn = isSent(json, "init");
+
+        for (int i = 0; i < 10; i++) {
+            tracker.sendEvent("grid", "open_" + i);
+            json = ui.respond();
+            Assert.assertEquals(json, sampledIn, isSent(json, "open_" + i));
+        }
+    }
+
+    @Test
+    public void eventSampleRateOverridesSampleRate() {
+        sampleRate = 0;
+        eventSampleRates.put("purchase", 1.0);
+        createTracker();
+
+        tracker.sendEvent("shop", "purchase");
+        tracker.sendEvent("shop", "browse");
+        String json = ui.respond();
+        Assert.assertTrue(json, isSent(json, "purchase"));
+        Assert.assertFalse(json, isSent(json, "browse"));
+    }
+
+    @Test
+    public void eventSampleRateOverridesGlobalSampleRate() {
+        eventSampleRates.put("purchase", 1.0);
+        createTracker();
+        GlobalTrackerConfiguration.setSampleRate(0.0);
+
+        tracker.sendEvent("shop", "purchase");
+        tracker.sendEvent("shop", "browse");
+        String json = ui.respond();
+        Assert.assertTrue(json, isSent(json, "purchase"));
+        Assert.assertFalse(json, isSent(json, "browse"));
+    }
+
+    @Test
+    public void eventsAreSampledOutUnderLoad() {
+        maxEventsPerSecond = 10;
+        TestLoad.setEventsPerSecond(0);
+        String json = createTracker();
+        Assert.assertTrue(json, isSent(json, "init"));
+
+        // Scales the sample rate down to 10 / 1e9
+        TestLoad.setEventsPerSecond(1e9);
+        tracker.sendEvent("grid", "busy");
+        json = ui.respond();
+        Assert.assertFalse(json, isSent(json, "busy"));
+
+        TestLoad.setEventsPerSecond(5);
+        tracker.sendEvent("grid", "calm");
+        json = ui.respond();
+        Assert.assertTrue(json, isSent(json, "calm"));
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.InitListener;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration;
+import org.vaadin.googleanalytics.tracking.TrackerConfiguration.ScriptLoading;
+import org.vaadin.googleanalytics.tracking.TrackerConfigurator;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.communication.IndexHtmlResponse;
+import com.vaadin.flow.shared.ui.LoadMode;
+
+public class ScriptLoadingTest {
+
+    private static final String LOAD_JS = "window.vaadinGa.load($0, $1)";
+
+    private static ScriptLoading scriptLoading;
+    private static String scriptUrl;
+    private static boolean preconnect;
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-MAIN", sendMode = SendMode.ALWAYS)
+    public static class Layout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setScriptLoading(scriptLoading).setScriptUrl(scriptUrl).setPreconnect(preconnect)
+                    .setCacheable(false);
+        }
+    }
+
+    @Before
+    public void reset() {
+        scriptLoading = ScriptLoading.EAGER;
+        scriptUrl = "https://www.googletagmanager.com/gtag/js";
+        preconnect = false;
+    }
+
+    private static TestUI initTracker() {
+        TestUI ui = new TestUI(new Layout());
+        GoogleAnalyticsTracker.get(ui).sendEvent("grid", "open");
+        ui.respond();
+        return ui;
+    }
+
+    private static String scriptUrl() {
+        return scriptUrl + "?id=G-MAIN";
+    }
+
+    private static Document renderIndexHtml() {
+        ServiceInitEvent event = new ServiceInitEvent(Mockito.mock(VaadinService.class, Mockito.RETURNS_DEEP_STUBS));
+        new InitListener().serviceInit(event);
+
+        Document document = Jsoup.parse("<html><head></head><body></body></html>");
+        IndexHtmlResponse response = new IndexHtmlResponse(Mockito.mock(VaadinRequest.class),
+                Mockito.mock(VaadinResponse.class), document);
+        event.getAddedIndexHtmlRequestListeners()
+                .forEach(listener -> listener.modifyIndexHtmlResponse(response));
+        return document;
+    }
+
+    private static boolean hasLink(Document document, String rel, String href) {
+        return !document.head().select("link[rel=" + rel + "][href=" + href + "]").isEmpty();
+    }
+
+    @Test
+    public void eagerScriptIsAddedToPage() {
+        TestUI ui = initTracker();
+        Assert.assertEquals(LoadMode.EAGER, ui.getLoadMode(scriptUrl()));
+        Assert.assertFalse(ui.getExecutedScripts().contains(LOAD_JS));
+    }
+
+    @Test
+    public void lazyScriptIsAddedToPage() {
+        scriptLoading = ScriptLoading.LAZY;
+        TestUI ui = initTracker();
+        Assert.assertEquals(LoadMode.LAZY, ui.getLoadMode(scriptUrl()));
+        Assert.assertFalse(ui.getExecutedScripts().contains(LOAD_JS));
+    }
+
+    private static void assertLoadedByClient(String condition) {
+        TestUI ui = new TestUI(new Layout());
+        GoogleAnalyticsTracker.get(ui).sendEvent("grid", "open");
+        String json = ui.respond();
+
+        Assert.assertNull(ui.getLoadMode(scriptUrl()));
+        Assert.assertTrue(ui.getExecutedScripts().contains(LOAD_JS));
+        Assert.assertTrue(json, Arrays.asList(json.split("\n"))
+                .containsAll(Arrays.asList("\"" + scriptUrl() + "\"", "\"" + condition + "\"")));
+    }
+
+    @Test
+    public void idleScriptIsLoadedByClient() {
+        scriptLoading = ScriptLoading.IDLE;
+        assertLoadedByClient("idle");
+    }
+
+    @Test
+    public void interactionScriptIsLoadedByClient() {
+        scriptLoading = ScriptLoading.INTERACTION;
+        assertLoadedByClient("interaction");
+    }
+
+    @Test
+    public void preconnectLinksAreAddedForScriptHost() {
+        preconnect = true;
+        scriptUrl = "https://preconnect.example.com:8443/gtag/js";
+        initTracker();
+
+        Document document = renderIndexHtml();
+        Assert.assertTrue(document.html(), hasLink(document, "preconnect", "https://preconnect.example.com:8443"));
+        Assert.assertTrue(document.html(), hasLink(document, "dns-prefetch", "https://preconnect.example.com:8443"));
+    }
+
+    @Test
+    public void noPreconnectLinksWithoutPreconnect() {
+        scriptUrl = "https://no-preconnect.example.com/gtag/js";
+        initTracker();
+
+        Document document = renderIndexHtml();
+        Assert.assertFalse(document.html(), hasLink(document, "preconnect", "https://no-preconnect.example.com"));
+    }
+}
@@ -0,0 +1,121 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.SendMode;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.ScriptRequestHandler;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+
+public class ScriptRequestHandlerTest {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-TEST", sendMode = SendMode.ALWAYS)
+    public static class Layout extends Component implements RouterLayout {
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScriptRequestHandler handler;
+
+    @Before
+    public void createScripts() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        Files.writeString(directory.resolve("gtag.js"), "/* generic */");
+        Files.writeString(directory.resolve("G-TEST.js"), "/* G-TEST */");
+        Files.writeString(directory.resolve("G-TEST.js.gz"), "gzipped");
+        handler = new ScriptRequestHandler(directory.toString());
+    }
+
+    private VaadinRequest request(String trackingId, String header, String value) {
+        VaadinRequest request = Mockito.mock(VaadinRequest.class);
+        Mockito.when(request.getPathInfo()).thenReturn("/ga-tracker/gtag.js");
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(request.getParameter("id")).thenReturn(trackingId);
+        Mockito.when(request.getDateHeader(Mockito.anyString())).thenReturn(-1L);
+        if (header != null) {
+            Mockito.when(request.getHeader(header)).thenReturn(value);
+        }
+        return request;
+    }
+
+    private String serve(VaadinRequest request, VaadinResponse response) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Mockito.when(response.getOutputStream()).thenReturn(body);
+        Assert.assertTrue(handler.handleRequest(null, request, response));
+        return body.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void scriptForTrackingIdIsServedWithValidators() throws IOException {
+        VaadinResponse response = Mockito.mock(VaadinResponse.class);
+        Assert.assertEquals("/* G-TEST */", serve(request("G-TEST", null, null), response));
+
+        Mockito.verify(response).setStatus(200);
+        Mockito.verify(response).setHeader(Mockito.eq("Cache-Control"), Mockito.startsWith("public"));
+        Mockito.verify(response).setDateHeader(Mockito.eq("Last-Modified"), Mockito.anyLong());
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(response).setHeader(Mockito.eq("ETag"), etag.capture());
+
+        VaadinResponse revalidated = Mockito.mock(VaadinResponse.class);
+        Assert.assertEquals("", serve(request("G-TEST", "If-None-Match", etag.getValue()), revalidated));
+        Mockito.verify(revalidated).setStatus(304);
+    }
+
+    @Test
+    public void precompressedVariantIsServedWhenAccepted() throws IOException {
+        VaadinResponse response = Mockito.mock(VaadinResponse.class);
+        Assert.assertEquals("gzipped", serve(request("G-TEST", "Accept-Encoding", "br;q=0, gzip"), response));
+        Mockito.verify(response).setHeader("Content-Encoding", "gzip");
+    }
+
+    @Test
+    public void genericScriptIsServedForUnknownId() throws IOException {
+        VaadinResponse response = Mockito.mock(VaadinResponse.class);
+        Assert.assertEquals("/* generic */", serve(request("../secret", null, null), response));
+    }
+
+    @Test
+    public void otherPathsAreIgnored() throws IOException {
+        VaadinRequest request = Mockito.mock(VaadinRequest.class);
+        Mockito.when(request.getPathInfo()).thenReturn("/orders");
+        Assert.assertFalse(handler.handleRequest(null, request, Mockito.mock(VaadinResponse.class)));
+    }
+
+    @Test
+    public void scriptIsSelfHostedOnlyWithDirectoryProperty() {
+        TestUI hosted = new TestUI(new Layout());
+        Mockito.when(hosted.getDeploymentConfiguration()
+                .getStringProperty(GoogleAnalyticsTracker.SCRIPT_DIRECTORY_PROPERTY, null))
+                .thenReturn(folder.getRoot().toString());
+        GoogleAnalyticsTracker.clearConfigurationCache(Layout.class);
+        GoogleAnalyticsTracker.get(hosted).sendEvent("grid", "open");
+        hosted.respond();
+        Assert.assertTrue(hosted.getLoadedScripts().toString(),
+                hosted.getLoadedScripts().contains("ga-tracker/gtag.js?id=G-TEST"));
+
+        // The handler created for this test does not change the default
+        TestUI remote = new TestUI(new Layout());
+        GoogleAnalyticsTracker.clearConfigurationCache(Layout.class);
+        GoogleAnalyticsTracker.get(remote).sendEvent("grid", "open");
+        remote.respond();
+        Assert.assertTrue(remote.getLoadedScripts().toString(),
+                remote.getLoadedScripts().contains("https://www.googletagmanager.com/gtag/js?id=G-TEST"));
+    }
+}
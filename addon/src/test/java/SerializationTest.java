@@ -31,17 +31,30 @@ import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
 
 public class SerializationTest {
 
-    private void testSerializationOf(Object obj) throws IOException, ClassNotFoundException {
+    /**
+     * Upper bound for the serialized size of one pending event sent through
+     * {@link GoogleAnalyticsTracker#sendEvent(String, String)}.
+     */
+    private static final int MAX_BYTES_PER_PENDING_EVENT = 20;
+
+    private byte[] serialize(Object obj) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
             oos.writeObject(obj);
         }
-        try (ObjectInputStream in =
-                     new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
-            obj.getClass().cast(in.readObject());
+        return baos.toByteArray();
+    }
+
+    private Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
         }
     }
 
+    private void testSerializationOf(Object obj) throws IOException, ClassNotFoundException {
+        obj.getClass().cast(deserialize(serialize(obj)));
+    }
+
     @Test
     public void testSerialization() throws ClassNotFoundException, IOException {
         try (MockedStatic<UI> mockUI = Mockito.mockStatic(UI.class)) {
@@ -51,4 +64,30 @@ public class SerializationTest {
             Assert.fail("Problem while testing serialization: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPendingEventFootprint() throws ClassNotFoundException, IOException {
+        int events = 100;
+        try (MockedStatic<UI> mockUI = Mockito.mockStatic(UI.class)) {
+            UI emptyUI = new UI();
+            mockUI.when(UI::getCurrent).thenReturn(emptyUI);
+            int emptySize = serialize(GoogleAnalyticsTracker.getCurrent()).length;
+
+            UI ui = new UI();
+            mockUI.when(UI::getCurrent).thenReturn(ui);
+            GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.getCurrent();
+            for (int i = 0; i < events; i++) {
+                tracker.sendEvent("footprint", "event_" + i);
+            }
+            byte[] bytes = serialize(tracker);
+
+            int bytesPerEvent = (bytes.length - emptySize) / events;
+            Assert.assertTrue("Pending events take " + bytesPerEvent + " bytes each",
+                    bytesPerEvent <= MAX_BYTES_PER_PENDING_EVENT);
+
+            // Pending events survive the round trip
+            GoogleAnalyticsTracker copy = (GoogleAnalyticsTracker) deserialize(bytes);
+            Assert.assertEquals(bytes.length, serialize(copy).length);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mockito.Mockito;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.page.Page;
+import com.vaadin.flow.component.page.PendingJavaScriptResult;
+import com.vaadin.flow.function.DeploymentConfiguration;
+import com.vaadin.flow.internal.JsonCodec;
+import com.vaadin.flow.router.Location;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.shared.ui.LoadMode;
+
+/**
+ * UI stub for tests. The session is a mock in production mode that is always
+ * locked and that belongs to a service mock of its own, and the arguments of all JavaScript invocations are recorded as JSON
+ * instead of being sent anywhere. Callbacks registered with
+ * <code>beforeClientResponse</code> run when {@link #respond()} is called.
+ */
+public class TestUI extends UI {
+
+    @Tag("div")
+    public static class View extends Component {
+    }
+
+    private final DeploymentConfiguration configuration = Mockito.mock(DeploymentConfiguration.class);
+    private final VaadinService service = Mockito.mock(VaadinService.class, Mockito.RETURNS_DEEP_STUBS);
+    private final VaadinSession session = Mockito.mock(VaadinSession.class);
+    private final List<String> sent = new ArrayList<>();
+    private final List<String> loadedScripts = new ArrayList<>();
+    private final Map<String, LoadMode> loadModes = new HashMap<>();
+    private final List<String> executedScripts = new ArrayList<>();
+
+    private final Page page = new Page(this) {
+        @Override
+        public PendingJavaScriptResult executeJs(String expression, Serializable... parameters) {
+            executedScripts.add(expression);
+            for (Serializable parameter : parameters) {
+                sent.add(JsonCodec.encodeWithoutTypeInfo(parameter).toJson());
+            }
+            return null;
+        }
+
+        @Override
+        public void addJavaScript(String url, LoadMode loadMode) {
+            loadedScripts.add(url);
+            loadModes.put(url, loadMode);
+        }
+    };
+
+    /**
+     * Creates a UI without any active route target.
+     */
+    public TestUI() {
+        Mockito.when(configuration.isProductionMode()).thenReturn(true);
+        Mockito.when(session.getConfiguration()).thenReturn(configuration);
+        Mockito.when(session.hasLock()).thenReturn(true);
+        Mockito.when(session.getService()).thenReturn(service);
+        getInternals().setSession(session);
+    }
+
+    /**
+     * Creates a UI that shows the given layout as the parent of a route
+     * target.
+     *
+     * @param layout
+     *            the router layout to show, not <code>null</code>
+     */
+    public TestUI(RouterLayout layout) {
+        this(new Location("grid"), new View(), layout);
+    }
+
+    /**
+     * Creates a UI that shows the given route target in the given layout.
+     *
+     * @param location
+     *            the location of the route target, not <code>null</code>
+     * @param view
+     *            the route target, not <code>null</code>
+     * @param layout
+     *            the router layout to show, not <code>null</code>
+     */
+    public TestUI(Location location, Component view, RouterLayout layout) {
+        this();
+        getInternals().showRouteTarget(location, view, Collections.singletonList(layout));
+    }
+
+    @Override
+    public VaadinSession getSession() {
+        return session;
+    }
+
+    @Override
+    public Page getPage() {
+        return page;
+    }
+
+    /**
+     * Gets the deployment configuration mock of the session, for stubbing
+     * configuration properties.
+     *
+     * @return the deployment configuration mock, not <code>null</code>
+     */
+    public DeploymentConfiguration getDeploymentConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Gets the service mock of the session.
+     *
+     * @return the service mock, not <code>null</code>
+     */
+    public VaadinService getService() {
+        return service;
+    }
+
+    /**
+     * Gets the URLs of all scripts that have been loaded.
+     *
+     * @return a list of script URLs, not <code>null</code>
+     */
+    public List<String> getLoadedScripts() {
+        return loadedScripts;
+    }
+
+    /**
+     * Gets the mode with which a script was loaded.
+     *
+     * @param url
+     *            the script URL, not <code>null</code>
+     * @return the load mode, or <code>null</code> if the script has not been
+     *         loaded
+     */
+    public LoadMode getLoadMode(String url) {
+        return loadModes.get(url);
+    }
+
+    /**
+     * Gets the expressions of all JavaScript invocations, in the order in
+     * which they were executed.
+     *
+     * @return a list of JavaScript expressions, not <code>null</code>
+     */
+    public List<String> getExecutedScripts() {
+        return executedScripts;
+    }
+
+    /**
+     * Runs all callbacks that run before the next response is written.
+     *
+     * @return the JSON encoded arguments of the JavaScript invocations since
+     *         the previous response, one per line
+     */
+    public String respond() {
+        getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        String json = String.join("\n", sent);
+        sent.clear();
+        return json;
+    }
+}
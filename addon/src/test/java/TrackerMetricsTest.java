@@ -0,0 +1,29 @@
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerMetrics;
+
+import com.vaadin.flow.component.UI;
+
+public class TrackerMetricsTest {
+
+    @After
+    public void resetMetrics() {
+        GoogleAnalyticsTracker.setMetrics(TrackerMetrics.NO_OP);
+    }
+
+    @Test
+    public void queuedEventsAreReported() {
+        TrackerMetrics metrics = Mockito.mock(TrackerMetrics.class);
+        GoogleAnalyticsTracker.setMetrics(metrics);
+
+        GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(new UI());
+        tracker.sendEvent("group", "clicked");
+        tracker.sendPageView("orders");
+
+        Mockito.verify(metrics).eventQueued("clicked");
+        Mockito.verify(metrics).eventQueued("page_view");
+        Mockito.verifyNoMoreInteractions(metrics);
+    }
+}
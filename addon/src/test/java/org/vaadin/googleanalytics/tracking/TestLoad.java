@@ -0,0 +1,23 @@
+package org.vaadin.googleanalytics.tracking;
+
+/**
+ * Gives tests in other packages control over the load that adaptive sampling
+ * reacts to.
+ */
+public class TestLoad {
+
+    private TestLoad() {
+        // Only static helpers
+    }
+
+    /**
+     * Makes adaptive sampling assume the given rate of tracked events for the
+     * next second.
+     *
+     * @param eventsPerSecond
+     *            the number of events per second to assume, not negative
+     */
+    public static void setEventsPerSecond(double eventsPerSecond) {
+        LoadMonitor.setEventsPerSecond(eventsPerSecond);
+    }
+}
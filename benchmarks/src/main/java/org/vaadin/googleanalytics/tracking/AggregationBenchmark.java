@@ -0,0 +1,67 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+/**
+ * Compares sending high-frequency events individually with counting them into
+ * a per-UI summary. Each operation tracks ten events and runs the flush that
+ * would happen before the response is written.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregationBenchmark {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-BENCHMARK", sendMode = EnableGoogleAnalytics.SendMode.ALWAYS)
+    public static class AggregatingLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.setAggregatedEvents("scroll");
+        }
+    }
+
+    @Param({ "false", "true" })
+    public boolean aggregated;
+
+    private BenchmarkUI ui;
+    private GoogleAnalyticsTracker tracker;
+
+    @Setup
+    public void setup() {
+        ui = aggregated ? new BenchmarkUI(new AggregatingLayout()) : new BenchmarkUI();
+        tracker = GoogleAnalyticsTracker.get(ui);
+
+        // Initialize so that the measurements only cover the steady state
+        tracker.sendPageView("grid");
+        ui.respond();
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendTenEventsPerResponse() {
+        for (int i = 0; i < 10; i++) {
+            tracker.sendEvent("grid", "scroll");
+        }
+        ui.respond();
+        return tracker;
+    }
+}
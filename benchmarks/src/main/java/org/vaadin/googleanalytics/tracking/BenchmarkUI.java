@@ -0,0 +1,173 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.Mockito;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.page.Page;
+import com.vaadin.flow.component.page.PendingJavaScriptResult;
+import com.vaadin.flow.function.DeploymentConfiguration;
+import com.vaadin.flow.function.SerializableConsumer;
+import com.vaadin.flow.internal.ExecutionContext;
+import com.vaadin.flow.internal.JsonCodec;
+import com.vaadin.flow.internal.StateTree.ExecutionRegistration;
+import com.vaadin.flow.router.Location;
+import com.vaadin.flow.router.RouterLayout;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.shared.ui.LoadMode;
+
+/**
+ * UI stub for benchmarks. The UI runs outside of any servlet container: the
+ * session is a stub in production mode that is always locked by the current
+ * thread, a tracked layout is shown as the
+ * parent of the active route and all JavaScript is recorded instead of being sent anywhere.
+ * Callbacks registered with {@link #beforeClientResponse} only run when
+ * {@link #respond()} is called.
+ */
+public class BenchmarkUI extends UI {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-BENCHMARK", sendMode = EnableGoogleAnalytics.SendMode.ALWAYS)
+    public static class TrackedLayout extends Component implements RouterLayout {
+    }
+
+    @Tag("div")
+    public static class View extends Component {
+    }
+
+    /**
+     * Page stub that counts the JavaScript invocations and the size of their
+     * encoded arguments.
+     */
+    public static class RecordingPage extends Page {
+        private boolean measureArguments;
+        private int invocations;
+        private long argumentBytes;
+
+        public RecordingPage(UI ui) {
+            super(ui);
+        }
+
+        @Override
+        public PendingJavaScriptResult executeJs(String expression, Serializable... parameters) {
+            invocations++;
+            if (measureArguments) {
+                for (Serializable parameter : parameters) {
+                    argumentBytes += parameter == null ? 4
+                            : JsonCodec.encodeWithTypeInfo(parameter).toJson().length();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Sets whether the encoded size of all arguments should be recorded.
+         * Disabled by default since the encoding would otherwise dominate the
+         * allocation measurements.
+         *
+         * @param measureArguments
+         *            <code>true</code> to record argument sizes
+         */
+        public void setMeasureArguments(boolean measureArguments) {
+            this.measureArguments = measureArguments;
+        }
+
+        @Override
+        public void addJavaScript(String url, LoadMode loadMode) {
+            // Dependencies are irrelevant for the measurements
+        }
+
+        public int getInvocations() {
+            return invocations;
+        }
+
+        public long getArgumentBytes() {
+            return argumentBytes;
+        }
+
+        public void reset() {
+            invocations = 0;
+            argumentBytes = 0;
+        }
+    }
+
+    /**
+     * Session stub that avoids mock invocations on the hot path, since the
+     * tracker checks the session lock for every command.
+     */
+    private static class BenchmarkSession extends VaadinSession {
+        private final DeploymentConfiguration configuration;
+
+        private BenchmarkSession(DeploymentConfiguration configuration) {
+            super(null);
+            this.configuration = configuration;
+        }
+
+        @Override
+        public boolean hasLock() {
+            return true;
+        }
+
+        @Override
+        public DeploymentConfiguration getConfiguration() {
+            return configuration;
+        }
+    }
+
+    private final RecordingPage page = new RecordingPage(this);
+    private final VaadinSession session;
+    private final List<SerializableConsumer<ExecutionContext>> beforeResponse = new ArrayList<>();
+
+    public BenchmarkUI() {
+        this(new TrackedLayout());
+    }
+
+    /**
+     * Creates a UI that shows the given layout as the parent of the active
+     * route target.
+     *
+     * @param layout
+     *            the tracked layout to show, not <code>null</code>
+     */
+    public BenchmarkUI(RouterLayout layout) {
+        DeploymentConfiguration configuration = Mockito.mock(DeploymentConfiguration.class);
+        Mockito.when(configuration.isProductionMode()).thenReturn(true);
+        session = new BenchmarkSession(configuration);
+
+        getInternals().showRouteTarget(new Location("orders"), new View(),
+                Collections.singletonList(layout));
+    }
+
+    @Override
+    public VaadinSession getSession() {
+        return session;
+    }
+
+    @Override
+    public RecordingPage getPage() {
+        return page;
+    }
+
+    @Override
+    public ExecutionRegistration beforeClientResponse(Component component,
+            SerializableConsumer<ExecutionContext> execution) {
+        beforeResponse.add(execution);
+        return null;
+    }
+
+    /**
+     * Runs all callbacks that would run before the next response is written.
+     */
+    public void respond() {
+        for (int i = 0; i < beforeResponse.size(); i++) {
+            beforeResponse.get(i).accept(null);
+        }
+        beforeResponse.clear();
+    }
+}
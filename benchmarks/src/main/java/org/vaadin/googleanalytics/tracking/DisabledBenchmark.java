@@ -0,0 +1,72 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.googleanalytics.tracking.event.LoginEvent;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+/**
+ * Compares the cost of tracking calls with an enabled tracker and with the
+ * shared tracker that is used when tracking is disabled, e.g. with
+ * {@link EnableGoogleAnalytics.SendMode#NEVER}. Disabled calls should not
+ * allocate or run any JavaScript.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisabledBenchmark {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-BENCHMARK", sendMode = EnableGoogleAnalytics.SendMode.NEVER)
+    public static class DisabledLayout extends Component implements RouterLayout {
+    }
+
+    @Param({ "false", "true" })
+    public boolean disabled;
+
+    private BenchmarkUI ui;
+    private GoogleAnalyticsTracker tracker;
+    private LoginEvent login;
+
+    @Setup
+    public void setup() {
+        ui = disabled ? new BenchmarkUI(new DisabledLayout()) : new BenchmarkUI();
+        tracker = GoogleAnalyticsTracker.get(ui);
+        login = new LoginEvent("password");
+
+        // Initialize so that the measurements only cover the steady state
+        tracker.sendPageView("orders");
+        ui.respond();
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendEventGroup() {
+        tracker.sendEvent("orders", "open_order");
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendLogin() {
+        tracker.send(login);
+        ui.respond();
+        return tracker;
+    }
+}
@@ -0,0 +1,85 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import elemental.json.JsonObject;
+
+/**
+ * Measures building a single command without queuing or sending it, and
+ * compares the two ways of producing JSON text for an e-commerce payload with
+ * an item array: building an elemental JSON tree and serializing it, or
+ * writing the text directly with {@link JsonWriter}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+    private Map<String, Serializable> fields;
+    private Map<String, Serializable> purchase;
+
+    @Setup
+    public void setup() {
+        fields = new HashMap<>();
+        fields.put("group_id", "orders");
+        fields.put("event_name", "open_order");
+        fields.put("value", Integer.valueOf(42));
+        fields.put("vaadin_ui", Integer.valueOf(1));
+
+        ArrayList<Map<String, Serializable>> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Map<String, Serializable> item = new LinkedHashMap<>();
+            item.put("item_id", "SKU-" + (1000 + i));
+            item.put("item_name", "Product \"" + i + "\"");
+            item.put("item_category", "Apparel");
+            item.put("price", Double.valueOf(19.99 + i));
+            item.put("quantity", Integer.valueOf(1 + i % 3));
+            items.add(item);
+        }
+        purchase = new LinkedHashMap<>();
+        purchase.put("transaction_id", "T-12345");
+        purchase.put("currency", "EUR");
+        purchase.put("value", Double.valueOf(149.95));
+        purchase.put("tax", Double.valueOf(28.49));
+        purchase.put("shipping", Integer.valueOf(5));
+        purchase.put("items", items);
+    }
+
+    @Benchmark
+    public Serializable[] createAction() {
+        return GoogleAnalyticsTracker.createAction("event", fields, "open_order");
+    }
+
+    @Benchmark
+    public JsonObject toJsonObject() {
+        return GoogleAnalyticsTracker.toJsonObject(fields);
+    }
+
+    @Benchmark
+    public String purchaseTree() {
+        return GoogleAnalyticsTracker.toJsonObject(purchase).toJson();
+    }
+
+    @Benchmark
+    public String purchaseStreaming() {
+        return JsonWriter.get().value(purchase).toString();
+    }
+}
@@ -0,0 +1,293 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+
+import com.vaadin.flow.router.AfterNavigationEvent;
+import com.vaadin.flow.router.Location;
+import com.vaadin.flow.router.LocationChangeEvent;
+import com.vaadin.flow.router.NavigationTrigger;
+import com.vaadin.flow.router.Router;
+
+/**
+ * Simulates many concurrent UIs in a single JVM to estimate the overhead of
+ * the add-on at scale. Every simulated UI is a {@link BenchmarkUI}, so no
+ * servlet container or browser is involved.
+ * <p>
+ * Each worker thread owns a slice of the UIs, in the same way as a session
+ * lock confines a UI to one request thread at a time. A worker repeatedly
+ * picks its next UI and simulates one server round trip: either a navigation
+ * through {@link InitListener#afterNavigation} or a number of tracked
+ * events, followed by the flush that happens before the response is written.
+ * <p>
+ * The report contains the throughput and latency percentiles of round trips,
+ * the retained heap per UI and per tracker, and the average size of the
+ * JavaScript arguments sent per round trip. Run with
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.vaadin.googleanalytics.tracking.LoadSimulation -uis 5000 -threads 8
+ * </pre>
+ *
+ * Options:
+ * <ul>
+ * <li><code>-uis</code> number of simulated UIs, default 2000</li>
+ * <li><code>-threads</code> number of worker threads, default the number of
+ * processors</li>
+ * <li><code>-events</code> events per round trip, default 5</li>
+ * <li><code>-navigations</code> one round trip in this many is a navigation,
+ * default 10</li>
+ * <li><code>-warmup</code> warmup time in seconds, default 5</li>
+ * <li><code>-seconds</code> measurement time in seconds, default 10</li>
+ * </ul>
+ */
+public class LoadSimulation {
+    /**
+     * Latencies recorded per worker. Later round trips overwrite the oldest
+     * samples, which is fine for percentiles of a steady state.
+     */
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private int uiCount = 2000;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int eventsPerRoundTrip = 5;
+    private int navigationInterval = 10;
+    private int warmupSeconds = 5;
+    private int measurementSeconds = 10;
+
+    private BenchmarkUI[] uis;
+    private AfterNavigationEvent[] navigationEvents;
+
+    /**
+     * State of one worker thread. Only accessed by the worker until it has
+     * finished.
+     */
+    private static class Worker {
+        private final long[] latencies = new long[MAX_SAMPLES];
+        private long roundTrips;
+        private long navigations;
+        private long events;
+
+        private void reset() {
+            roundTrips = 0;
+            navigations = 0;
+            events = 0;
+        }
+
+        private void record(long nanos) {
+            latencies[(int) (roundTrips++ % MAX_SAMPLES)] = nanos;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadSimulation simulation = new LoadSimulation();
+        simulation.parseArguments(args);
+        simulation.run();
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("No value for " + args[i]);
+            }
+            int value = Integer.parseInt(args[i + 1]);
+            if (value < 1) {
+                throw new IllegalArgumentException(args[i] + " must be positive");
+            }
+            switch (args[i]) {
+            case "-uis":
+                uiCount = value;
+                break;
+            case "-threads":
+                threadCount = value;
+                break;
+            case "-events":
+                eventsPerRoundTrip = value;
+                break;
+            case "-navigations":
+                navigationInterval = value;
+                break;
+            case "-warmup":
+                warmupSeconds = value;
+                break;
+            case "-seconds":
+                measurementSeconds = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        threadCount = Math.min(threadCount, uiCount);
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf("Simulating %d UIs with %d threads, %d events per round trip, navigation every %d round trips%n",
+                uiCount, threadCount, eventsPerRoundTrip, navigationInterval);
+
+        long baseline = usedHeap();
+        uis = new BenchmarkUI[uiCount];
+        navigationEvents = new AfterNavigationEvent[uiCount];
+        Router router = Mockito.mock(Router.class);
+        for (int i = 0; i < uiCount; i++) {
+            BenchmarkUI ui = new BenchmarkUI();
+            uis[i] = ui;
+            navigationEvents[i] = new AfterNavigationEvent(new LocationChangeEvent(router, ui,
+                    NavigationTrigger.ROUTER_LINK, new Location("orders/" + i + "?sort=date"),
+                    ui.getInternals().getActiveRouterTargetsChain()));
+        }
+        long withUIs = usedHeap();
+
+        // First navigation creates and initializes the trackers
+        for (int i = 0; i < uiCount; i++) {
+            InitListener.afterNavigation(uis[i], navigationEvents[i]);
+            uis[i].respond();
+        }
+        long withTrackers = usedHeap();
+
+        Worker[] workers = new Worker[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            workers[i] = new Worker();
+        }
+
+        runWorkers(workers, warmupSeconds);
+        for (Worker worker : workers) {
+            worker.reset();
+        }
+        long start = System.nanoTime();
+        runWorkers(workers, measurementSeconds);
+        long elapsed = System.nanoTime() - start;
+
+        report(workers, elapsed);
+        System.out.printf("Heap per UI: %,d bytes, of which tracker %,d bytes%n",
+                (withTrackers - baseline) / uiCount, (withTrackers - withUIs) / uiCount);
+        reportArgumentBytes();
+    }
+
+    private void runWorkers(Worker[] workers, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(workers.length);
+        for (int t = 0; t < workers.length; t++) {
+            int slice = t;
+            Worker worker = workers[t];
+            Thread thread = new Thread(() -> {
+                try {
+                    runWorker(worker, slice, deadline);
+                } finally {
+                    done.countDown();
+                }
+            }, "simulation-" + t);
+            thread.start();
+        }
+        done.await();
+    }
+
+    private void runWorker(Worker worker, int slice, long deadline) {
+        int index = slice;
+        long round = 0;
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            roundTrip(worker, index, round++ % navigationInterval == 0);
+            worker.record(System.nanoTime() - start);
+
+            index += threadCount;
+            if (index >= uiCount) {
+                index = slice;
+            }
+        }
+    }
+
+    private void roundTrip(Worker worker, int index, boolean navigate) {
+        BenchmarkUI ui = uis[index];
+        if (navigate) {
+            InitListener.afterNavigation(ui, navigationEvents[index]);
+            worker.navigations++;
+        } else {
+            GoogleAnalyticsTracker tracker = GoogleAnalyticsTracker.get(ui);
+            for (int i = 0; i < eventsPerRoundTrip; i++) {
+                tracker.sendEvent("orders", "open_order");
+            }
+            worker.events += eventsPerRoundTrip;
+        }
+        ui.respond();
+    }
+
+    private void report(Worker[] workers, long elapsedNanos) {
+        long roundTrips = 0;
+        long navigations = 0;
+        long events = 0;
+        List<long[]> samples = new ArrayList<>();
+        int sampleCount = 0;
+        for (Worker worker : workers) {
+            roundTrips += worker.roundTrips;
+            navigations += worker.navigations;
+            events += worker.events;
+            int count = (int) Math.min(worker.roundTrips, MAX_SAMPLES);
+            samples.add(Arrays.copyOf(worker.latencies, count));
+            sampleCount += count;
+        }
+
+        long[] latencies = new long[sampleCount];
+        int offset = 0;
+        for (long[] sample : samples) {
+            System.arraycopy(sample, 0, latencies, offset, sample.length);
+            offset += sample.length;
+        }
+        Arrays.sort(latencies);
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Round trips: %,d (%,.0f/s), navigations: %,d (%,.0f/s), events: %,d (%,.0f/s)%n",
+                roundTrips, roundTrips / seconds, navigations, navigations / seconds, events, events / seconds);
+        System.out.printf("Round trip latency: p50 %s, p90 %s, p99 %s, p99.9 %s, max %s%n",
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), percentile(latencies, 1));
+    }
+
+    private static String percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return String.format("%.1f us", sorted[Math.max(0, index)] / 1000.0);
+    }
+
+    /**
+     * Measures argument sizes in a separate pass since encoding the arguments
+     * would otherwise distort the latency measurements.
+     */
+    private void reportArgumentBytes() {
+        int sampleUIs = Math.min(uiCount, 100);
+        long navigationBytes = 0;
+        long eventBytes = 0;
+        Worker probe = new Worker();
+        for (int i = 0; i < sampleUIs; i++) {
+            BenchmarkUI ui = uis[i];
+            BenchmarkUI.RecordingPage page = ui.getPage();
+            page.setMeasureArguments(true);
+
+            page.reset();
+            roundTrip(probe, i, true);
+            navigationBytes += page.getArgumentBytes();
+
+            page.reset();
+            roundTrip(probe, i, false);
+            eventBytes += page.getArgumentBytes();
+
+            page.setMeasureArguments(false);
+        }
+        System.out.printf("JavaScript arguments per round trip: navigation %,d bytes, %d events %,d bytes%n",
+                navigationBytes / sampleUIs, eventsPerRoundTrip, eventBytes / sampleUIs);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
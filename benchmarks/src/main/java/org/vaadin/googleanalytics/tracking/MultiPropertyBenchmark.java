@@ -0,0 +1,95 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.router.RouterLayout;
+
+/**
+ * Measures the extra cost of sending events to additional measurement ids.
+ * <code>single</code> is the baseline with only the main tracking id,
+ * <code>fanOut</code> sends every event to two additional ids and
+ * <code>routed</code> filters the events of one of the additional ids so that
+ * every event needs an explicit <code>send_to</code> list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiPropertyBenchmark {
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-BENCHMARK", sendMode = EnableGoogleAnalytics.SendMode.ALWAYS)
+    public static class FanOutLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.addMeasurementId("G-SECOND").addMeasurementId("G-THIRD");
+        }
+    }
+
+    @Tag("div")
+    @EnableGoogleAnalytics(value = "G-BENCHMARK", sendMode = EnableGoogleAnalytics.SendMode.ALWAYS)
+    public static class RoutedLayout extends Component implements RouterLayout, TrackerConfigurator {
+        @Override
+        public void configureTracker(TrackerConfiguration configuration) {
+            configuration.addMeasurementId("G-SECOND").addMeasurementId("G-THIRD")
+                    .setMeasurementIdEventNames("G-THIRD", "purchase");
+        }
+    }
+
+    @Param({ "single", "fanOut", "routed" })
+    public String properties;
+
+    private BenchmarkUI ui;
+    private GoogleAnalyticsTracker tracker;
+
+    @Setup
+    public void setup() {
+        switch (properties) {
+        case "fanOut":
+            ui = new BenchmarkUI(new FanOutLayout());
+            break;
+        case "routed":
+            ui = new BenchmarkUI(new RoutedLayout());
+            break;
+        default:
+            ui = new BenchmarkUI();
+        }
+        tracker = GoogleAnalyticsTracker.get(ui);
+
+        // Initialize so that the measurements only cover the steady state
+        tracker.sendPageView("orders");
+        ui.respond();
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendEventGroup() {
+        tracker.sendEvent("orders", "open_order");
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendTenEventsPerResponse() {
+        for (int i = 0; i < 10; i++) {
+            tracker.sendEvent("orders", "open_order");
+        }
+        ui.respond();
+        return tracker;
+    }
+}
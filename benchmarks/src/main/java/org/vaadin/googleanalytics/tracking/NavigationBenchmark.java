@@ -0,0 +1,148 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics.LogLevel;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.HasElement;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.router.AfterNavigationEvent;
+import com.vaadin.flow.router.Location;
+import com.vaadin.flow.router.LocationChangeEvent;
+import com.vaadin.flow.router.NavigationTrigger;
+import com.vaadin.flow.router.Route;
+import com.vaadin.flow.router.Router;
+import com.vaadin.flow.router.RouterLayout;
+
+/**
+ * Measures the per-navigation cost of deciding whether a page view should be
+ * tracked. The <code>reflective</code> benchmark reproduces the annotation
+ * lookups that were done on every navigation before the per-class metadata
+ * cache was introduced. The <code>normalize</code> benchmarks compare mapping
+ * a location to its route template with a template that is compiled once per
+ * route class and with a template that is compiled for every navigation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavigationBenchmark {
+
+    @Tag("div")
+    @EnableGoogleAnalytics("G-BENCHMARK")
+    public static class TrackedLayout extends Component implements RouterLayout {
+    }
+
+    @Tag("div")
+    public static class NestedLayout extends Component implements RouterLayout {
+    }
+
+    @Tag("div")
+    public static class View extends Component {
+    }
+
+    @Tag("div")
+    @Route("orders/:orderId(\\d+)/:tab?")
+    public static class OrderView extends Component {
+    }
+
+    private static final String ORDER_TEMPLATE = "orders/:orderId(\\d+)/:tab?";
+
+    private GoogleAnalyticsTracker tracker;
+    private AfterNavigationEvent navigationEvent;
+    private PagePathNormalizer normalizer;
+    private Location orderLocation;
+
+    @Setup
+    public void setup() {
+        UI ui = new UI();
+        tracker = GoogleAnalyticsTracker.get(ui);
+
+        List<HasElement> chain = Arrays.asList(new View(), new NestedLayout(), new TrackedLayout());
+        navigationEvent = new AfterNavigationEvent(new LocationChangeEvent(Mockito.mock(Router.class), ui,
+                NavigationTrigger.ROUTER_LINK, new Location("orders/123?sort=date"), chain));
+
+        normalizer = PagePathNormalizer.of(TrackerConfiguration.create(LogLevel.NONE, true)
+                .setRouteTemplatePageViews(true).setDeniedQueryParameters("token"));
+        orderLocation = new Location("orders/123/items?sort=date&token=abc");
+    }
+
+    @Benchmark
+    public boolean reflective() {
+        List<HasElement> chain = navigationEvent.getActiveChain();
+        if (chain.stream().anyMatch(target -> target.getClass().getAnnotation(IgnorePageView.class) != null)) {
+            return false;
+        }
+        if (tracker.isInitialized()) {
+            return true;
+        }
+        if (chain.isEmpty()) {
+            return false;
+        }
+        Class<? extends HasElement> rootLayoutClass = chain.get(chain.size() - 1).getClass();
+        return rootLayoutClass.getAnnotation(EnableGoogleAnalytics.class) != null
+                || TrackerConfigurator.class.isAssignableFrom(rootLayoutClass);
+    }
+
+    @Benchmark
+    public boolean cached() {
+        return InitListener.shouldTrack(tracker, navigationEvent);
+    }
+
+    @Benchmark
+    public String normalizeNone() {
+        return PagePathNormalizer.NONE.normalize(orderLocation, OrderView.class);
+    }
+
+    @Benchmark
+    public String normalizeCached() {
+        return normalizer.normalize(orderLocation, OrderView.class);
+    }
+
+    @Benchmark
+    public String normalizeUncompiled() {
+        return RouteTemplate.compile(ORDER_TEMPLATE).apply(orderLocation.getSegments());
+    }
+
+    /**
+     * Runs the complete navigation listener including the page view it sends
+     * and the flush before the response.
+     */
+    @Benchmark
+    public BenchmarkUI afterNavigation(TrackedNavigation state) {
+        InitListener.afterNavigation(state.ui, state.navigationEvent);
+        state.ui.respond();
+        return state.ui;
+    }
+
+    @State(Scope.Thread)
+    public static class TrackedNavigation {
+        private BenchmarkUI ui;
+        private AfterNavigationEvent navigationEvent;
+
+        @Setup
+        public void setup() {
+            ui = new BenchmarkUI();
+            navigationEvent = new AfterNavigationEvent(new LocationChangeEvent(Mockito.mock(Router.class), ui,
+                    NavigationTrigger.ROUTER_LINK, new Location("orders/123?sort=date"),
+                    ui.getInternals().getActiveRouterTargetsChain()));
+        }
+    }
+}
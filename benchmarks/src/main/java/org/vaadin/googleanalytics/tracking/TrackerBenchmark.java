@@ -0,0 +1,133 @@
+package org.vaadin.googleanalytics.tracking;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.googleanalytics.tracking.event.Item;
+import org.vaadin.googleanalytics.tracking.event.LoginEvent;
+import org.vaadin.googleanalytics.tracking.event.PurchaseEvent;
+
+/**
+ * Measures the public tracking API of an initialized tracker. Each operation
+ * queues one command and then runs the flush that would happen before the
+ * response is written, so the numbers include encoding the command for the
+ * browser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackerBenchmark {
+    private BenchmarkUI ui;
+    private GoogleAnalyticsTracker tracker;
+    private Map<String, Serializable> fields;
+    private List<Item> items;
+
+    @Setup
+    public void setup() {
+        ui = new BenchmarkUI();
+        tracker = GoogleAnalyticsTracker.get(ui);
+
+        // Initialize so that the measurements only cover the steady state
+        tracker.sendPageView("orders");
+        ui.respond();
+
+        fields = new HashMap<>();
+        fields.put("item_id", "SKU-1234");
+        fields.put("quantity", Integer.valueOf(2));
+        items = List.of(new Item("SKU-1234", 12.5, 2));
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker ga() {
+        tracker.ga("event", fields, "add_to_cart");
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendPageView() {
+        tracker.sendPageView("orders/123?sort=date");
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendEventGroup() {
+        tracker.sendEvent("orders", "open_order");
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendEventLabel() {
+        tracker.sendEvent("orders", "open_order", "toolbar");
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendEventValue() {
+        tracker.sendEvent("orders", "open_order", "toolbar", 42);
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendEventFields() {
+        tracker.sendEvent("orders", "add_to_cart", fields);
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendTenEventsPerResponse() {
+        for (int i = 0; i < 10; i++) {
+            tracker.sendEvent("orders", "open_order");
+        }
+        ui.respond();
+        return tracker;
+    }
+
+    /**
+     * Baseline for {@link #sendLogin()}, sending the same event through the
+     * map-based API.
+     */
+    @Benchmark
+    public GoogleAnalyticsTracker gaLogin() {
+        Map<String, Serializable> login = new HashMap<>();
+        login.put("method", "password");
+        tracker.ga("event", login, "login");
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendLogin() {
+        tracker.send(new LoginEvent("password"));
+        ui.respond();
+        return tracker;
+    }
+
+    @Benchmark
+    public GoogleAnalyticsTracker sendPurchase() {
+        tracker.send(new PurchaseEvent("T-1", "EUR", 25, items));
+        ui.respond();
+        return tracker;
+    }
+}
@@ -20,6 +20,8 @@ public class MainLayout extends VerticalLayout implements RouterLayout, TrackerC
 
     @Override
     public void configureTracker(TrackerConfiguration configuration) {
+        // Run gtag with debug logging also in development mode
+        configuration.setEnabled(true);
         configuration.setCreateField("send_page_view", Boolean.FALSE);
         configuration.setInitialValue("transport_type", "beacon");
     }
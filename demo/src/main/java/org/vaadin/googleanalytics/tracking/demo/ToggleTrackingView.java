@@ -1,6 +1,7 @@
 package org.vaadin.googleanalytics.tracking.demo;
 
 import org.vaadin.googleanalytics.tracking.EnableGoogleAnalytics;
+import org.vaadin.googleanalytics.tracking.GlobalTrackerConfiguration;
 import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
 
 import com.vaadin.flow.component.Text;
@@ -9,12 +10,14 @@ import com.vaadin.flow.component.html.Span;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
+import com.vaadin.flow.server.VaadinRequest;
 
 @Route(value = "toggle-tracking", layout = MainLayout.class)
 @PageTitle("Toggle tracking")
 public class ToggleTrackingView extends VerticalLayout {
     private final String trackingId;
     private final Span status = new Span();
+    private final Span globalStatus = new Span();
 
     public ToggleTrackingView() {
 
@@ -38,6 +41,12 @@ public class ToggleTrackingView extends VerticalLayout {
 
         add(disable, enable, sendEvent, status);
         setTrackingEnabled(true);
+
+        // The global switch affects all users, so only administrators get it
+        VaadinRequest request = VaadinRequest.getCurrent();
+        if (request != null && request.isUserInRole("admin")) {
+            addGlobalSwitch();
+        }
     }
 
     private void setTrackingEnabled(boolean enabled) {
@@ -46,5 +55,27 @@ public class ToggleTrackingView extends VerticalLayout {
                         .executeJs("window['ga-disable-' + $0] = $1;", trackingId, !enabled));
         status.setText("Tracking is " + (enabled ? "enabled" : "disabled"));
     }
-}
 
+    private void addGlobalSwitch() {
+        add(new Text("Switch tracking off for all users, e.g. during an incident."));
+
+        Button disableAll = new Button("Disable tracking for all users",
+                click -> setGlobalTrackingEnabled(false));
+        Button enableAll = new Button("Enable tracking for all users",
+                click -> setGlobalTrackingEnabled(true));
+
+        add(disableAll, enableAll, globalStatus);
+        updateGlobalStatus();
+    }
+
+    private void setGlobalTrackingEnabled(boolean enabled) {
+        // Applies to all UIs with their next event, no need to visit them
+        GlobalTrackerConfiguration.setEnabled(enabled);
+        updateGlobalStatus();
+    }
+
+    private void updateGlobalStatus() {
+        globalStatus.setText("Tracking for all users is "
+                + (GlobalTrackerConfiguration.isEnabled() ? "enabled" : "disabled"));
+    }
+}
@@ -0,0 +1,140 @@
+package org.vaadin.googleanalytics.tracking.micrometer;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.vaadin.googleanalytics.tracking.GoogleAnalyticsTracker;
+import org.vaadin.googleanalytics.tracking.TrackerMetrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records tracker measurements as Micrometer meters. Register an instance with
+ * {@link GoogleAnalyticsTracker#setMetrics(TrackerMetrics)}, e.g. from a
+ * <code>VaadinServiceInitListener</code>:
+ *
+ * <pre>
+ * GoogleAnalyticsTracker.setMetrics(new MicrometerTrackerMetrics(registry));
+ * </pre>
+ *
+ * Event counters are tagged with the event name, so applications that
+ * generate event names dynamically should not use this binding without a
+ * meter filter that limits the number of distinct names.
+ * <p>
+ * Meters are created when first needed and cached, so recording a
+ * measurement for an already seen event name or route does not allocate.
+ */
+public class MicrometerTrackerMetrics implements TrackerMetrics {
+    private static final String PREFIX = "ga.tracker.";
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Counter> queued = new ConcurrentHashMap<>();
+    private final Map<String, Counter> aggregated = new ConcurrentHashMap<>();
+    private final Map<String, Counter> flushed = new ConcurrentHashMap<>();
+    private final Map<DropReason, Map<String, Counter>> dropped = new EnumMap<>(DropReason.class);
+
+    private final Timer initTimer;
+    private final Counter initFailures;
+    private final Timer flushTimer;
+    private final DistributionSummary queueDepth;
+    private final DistributionSummary unknownRouteArguments;
+
+    private final ClassValue<DistributionSummary> routeArguments = new ClassValue<DistributionSummary>() {
+        @Override
+        protected DistributionSummary computeValue(Class<?> routeTarget) {
+            return argumentsSummary(routeTarget.getName());
+        }
+    };
+
+    /**
+     * Creates a new metrics binding that registers meters in the given
+     * registry.
+     *
+     * @param registry
+     *            the meter registry to use, not <code>null</code>
+     */
+    public MicrometerTrackerMetrics(MeterRegistry registry) {
+        this.registry = Objects.requireNonNull(registry);
+
+        for (DropReason reason : DropReason.values()) {
+            dropped.put(reason, new ConcurrentHashMap<>());
+        }
+
+        initTimer = Timer.builder(PREFIX + "init").description("Time spent initializing trackers")
+                .register(registry);
+        initFailures = Counter.builder(PREFIX + "init.failures").description("Trackers that failed to initialize")
+                .register(registry);
+        flushTimer = Timer.builder(PREFIX + "flush").description("Time spent flushing queued commands")
+                .register(registry);
+        queueDepth = DistributionSummary.builder(PREFIX + "queue.depth")
+                .description("Number of queued commands when flushing").register(registry);
+        unknownRouteArguments = argumentsSummary("none");
+    }
+
+    private DistributionSummary argumentsSummary(String route) {
+        return DistributionSummary.builder(PREFIX + "js.arguments").description("Size of JavaScript arguments sent")
+                .baseUnit("bytes").tag("route", route).register(registry);
+    }
+
+    private Counter eventCounter(Map<String, Counter> counters, String name, String eventName, DropReason reason) {
+        Counter counter = counters.get(eventName);
+        if (counter == null) {
+            Counter.Builder builder = Counter.builder(PREFIX + name).tag("event", eventName);
+            if (reason != null) {
+                builder.tag("reason", reason.name().toLowerCase(Locale.ROOT));
+            }
+            counter = counters.computeIfAbsent(eventName, ignore -> builder.register(registry));
+        }
+        return counter;
+    }
+
+    @Override
+    public void eventQueued(String eventName) {
+        eventCounter(queued, "events.queued", eventName, null).increment();
+    }
+
+    @Override
+    public void eventAggregated(String eventName) {
+        eventCounter(aggregated, "events.aggregated", eventName, null).increment();
+    }
+
+    @Override
+    public void eventFlushed(String eventName) {
+        eventCounter(flushed, "events.flushed", eventName, null).increment();
+    }
+
+    @Override
+    public void eventDropped(String eventName, DropReason reason) {
+        eventCounter(dropped.get(reason), "events.dropped", eventName, reason).increment();
+    }
+
+    @Override
+    public void initCompleted(long nanos) {
+        initTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void initFailed(RuntimeException cause) {
+        initFailures.increment();
+    }
+
+    @Override
+    public void flushCompleted(int depth, long nanos) {
+        queueDepth.record(depth);
+        flushTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void argumentsSent(Class<?> routeTarget, long bytes) {
+        DistributionSummary summary = routeTarget != null ? routeArguments.get(routeTarget) : unknownRouteArguments;
+        summary.record(bytes);
+    }
+}
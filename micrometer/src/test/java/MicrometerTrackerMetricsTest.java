@@ -0,0 +1,44 @@
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vaadin.googleanalytics.tracking.TrackerMetrics.DropReason;
+import org.vaadin.googleanalytics.tracking.micrometer.MicrometerTrackerMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MicrometerTrackerMetricsTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MicrometerTrackerMetrics metrics = new MicrometerTrackerMetrics(registry);
+
+    @Test
+    public void eventsAreCountedPerNameAndReason() {
+        metrics.eventQueued("login");
+        metrics.eventQueued("login");
+        metrics.eventQueued("search");
+        metrics.eventDropped("login", DropReason.SAMPLED);
+        metrics.eventDropped("login", DropReason.DUPLICATE);
+        metrics.eventDropped("login", DropReason.DUPLICATE);
+
+        Assert.assertEquals(2, registry.get("ga.tracker.events.queued").tag("event", "login").counter().count(), 0);
+        Assert.assertEquals(1, registry.get("ga.tracker.events.queued").tag("event", "search").counter().count(), 0);
+        Assert.assertEquals(1, registry.get("ga.tracker.events.dropped").tag("event", "login")
+                .tag("reason", "sampled").counter().count(), 0);
+        Assert.assertEquals(2, registry.get("ga.tracker.events.dropped").tag("event", "login")
+                .tag("reason", "duplicate").counter().count(), 0);
+    }
+
+    @Test
+    public void flushesAndArgumentsAreRecorded() {
+        metrics.flushCompleted(3, TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.argumentsSent(String.class, 100);
+        metrics.argumentsSent(null, 40);
+
+        Assert.assertEquals(3, registry.get("ga.tracker.queue.depth").summary().totalAmount(), 0);
+        Assert.assertEquals(2, registry.get("ga.tracker.flush").timer().totalTime(TimeUnit.MILLISECONDS), 0);
+        Assert.assertEquals(100, registry.get("ga.tracker.js.arguments").tag("route", String.class.getName())
+                .summary().totalAmount(), 0);
+        Assert.assertEquals(40,
+                registry.get("ga.tracker.js.arguments").tag("route", "none").summary().totalAmount(), 0);
+    }
+}